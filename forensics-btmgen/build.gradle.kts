@@ -5,6 +5,8 @@ plugins {
     id("java-gradle-plugin")
     kotlin("jvm") version "2.2.0"
     id("maven-publish")
+    // Micro benchmarks under src/jmh, run with ./gradlew jmh
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "de.burger.forensics"
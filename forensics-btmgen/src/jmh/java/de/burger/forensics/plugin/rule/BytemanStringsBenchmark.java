@@ -0,0 +1,71 @@
+package de.burger.forensics.plugin.rule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// English comments only in code.
+/**
+ * Compares {@link BytemanStrings#escape} with the chained {@code String.replace} escaping it replaced,
+ * on typical condition texts with and without chars to escape. Run with {@code ./gradlew jmh} and
+ * {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BytemanStringsBenchmark {
+
+    @Param({"clean", "quoted", "multiline"})
+    public String input;
+
+    @Param({"0", "40"})
+    public int maxLength;
+
+    private String text;
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    @Setup
+    public void setUp() {
+        text = switch (input) {
+            case "clean" -> "order.getStatus() == Status.APPROVED && order.getTotal().compareTo(limit) > 0";
+            case "quoted" -> "\"APPROVED\".equals(order.getStatus()) && !\"\\\\\".equals(order.getNote())";
+            case "multiline" -> "order != null\n\t&& order.isPaid()\r\n\t&& \"EUR\".equals(order.getCurrency())";
+            default -> throw new IllegalArgumentException(input);
+        };
+    }
+
+    @Benchmark
+    public String chainedReplace() {
+        String truncated = maxLength > 0 && text.length() > maxLength ? text.substring(0, maxLength) + "…" : text;
+        return truncated
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n")
+            .replace("\r", "\\r")
+            .replace("\t", "\\t");
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return BytemanStrings.escape(text, maxLength);
+    }
+
+    @Benchmark
+    public StringBuilder singlePassIntoBuffer() {
+        buffer.setLength(0);
+        return BytemanStrings.escapeTo(buffer, text, maxLength);
+    }
+}
@@ -0,0 +1,61 @@
+package de.burger.forensics.plugin.engine;
+
+import java.util.Arrays;
+
+// English comments only in code.
+/**
+ * Matching closing brace for every opening brace of a text, computed in one stack pass. Meant for
+ * prefiltered Java source, where braces in comments and literals are already blanked.
+ *
+ * <p>An opening brace that is never closed maps to the last index of the text, the same bound the
+ * forward scan used before, so truncated sources still yield a usable body range.
+ */
+public final class BraceIndex {
+    // Offsets of the opening braces in ascending order and, parallel to them, their closing offsets.
+    private final int[] opens;
+    private final int[] closes;
+    private final int unmatched;
+
+    private BraceIndex(int[] opens, int[] closes, int unmatched) {
+        this.opens = opens;
+        this.closes = closes;
+        this.unmatched = unmatched;
+    }
+
+    public static BraceIndex of(CharSequence text) {
+        int length = text.length();
+        int[] opens = new int[16];
+        int[] closes = new int[16];
+        int[] stack = new int[16];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                if (count == opens.length) {
+                    opens = Arrays.copyOf(opens, count * 2);
+                    closes = Arrays.copyOf(closes, count * 2);
+                }
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                opens[count] = i;
+                closes[count] = length - 1;
+                stack[depth++] = count++;
+            } else if (c == '}' && depth > 0) {
+                // A stray closing brace with nothing open is ignored, like in the forward scan.
+                closes[stack[--depth]] = i;
+            }
+        }
+        return new BraceIndex(Arrays.copyOf(opens, count), Arrays.copyOf(closes, count), length - 1);
+    }
+
+    /**
+     * Offset of the brace that closes the one at {@code openIndex}. For an offset that holds no opening
+     * brace the last index of the text is returned.
+     */
+    public int closeOf(int openIndex) {
+        int slot = Arrays.binarySearch(opens, openIndex);
+        return slot >= 0 ? closes[slot] : unmatched;
+    }
+}
@@ -1,50 +1,124 @@
 package de.burger.forensics.plugin.engine;
 
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+// English comments only in code.
+/**
+ * Blanks comments and the contents of string, text block and character literals in Java source, so
+ * that regex based parsing only sees code. The result has the same length and the same line breaks as
+ * the input: literals keep their delimiters, everything else that is blanked becomes spaces.
+ *
+ * <p>One pass over the characters with a small state machine, so a {@code //} inside a string or a
+ * quote inside a comment is handled the way the compiler sees it.
+ */
 public final class JavaPrefilter {
-    private static final Pattern BLOCK_COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
-    private static final Pattern LINE_COMMENT = Pattern.compile("//.*?$", Pattern.MULTILINE);
-    private static final Pattern STRING_LITERAL = Pattern.compile("\"(?:[^\"\\\\]|\\\\.)*\"");
-    private static final Pattern CHAR_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'");
+    private static final int CODE = 0;
+    private static final int LINE_COMMENT = 1;
+    private static final int BLOCK_COMMENT = 2;
+    private static final int STRING = 3;
+    private static final int CHAR = 4;
+    private static final int TEXT_BLOCK = 5;
+
+    // Buffers up to this size are kept per thread for the next call; larger ones are left to the GC.
+    private static final int MAX_RETAINED_CHARS = 1 << 20;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[8192]);
 
     private JavaPrefilter() {}
 
     public static String prefilterJava(String source) {
-        String withoutStrings = replaceAll(STRING_LITERAL, source, s -> replaceLiteralPreservingLength(s, '"'));
-        String withoutChars = replaceAll(CHAR_LITERAL, withoutStrings, s -> replaceLiteralPreservingLength(s, '\''));
-        String withoutBlock = replaceAll(BLOCK_COMMENT, withoutChars, JavaPrefilter::blankWithNewlines);
-        return replaceAll(LINE_COMMENT, withoutBlock, JavaPrefilter::blankWithNewlines);
-    }
-
-    private static String replaceAll(Pattern pattern, String input, Function<String, String> replacer) {
-        Matcher m = pattern.matcher(input);
-        StringBuilder sb = new StringBuilder();
-        while (m.find()) {
-            String replacement = Matcher.quoteReplacement(replacer.apply(m.group()));
-            m.appendReplacement(sb, replacement);
+        int length = source.length();
+        char[] buf = BUFFER.get();
+        if (buf.length < length) {
+            buf = new char[Math.max(length, buf.length * 2)];
+            if (buf.length <= MAX_RETAINED_CHARS) {
+                BUFFER.set(buf);
+            }
         }
-        m.appendTail(sb);
-        return sb.toString();
-    }
+        source.getChars(0, length, buf, 0);
 
-    private static String blankWithNewlines(String segment) {
-        StringBuilder sb = new StringBuilder(segment.length());
-        for (int i = 0; i < segment.length(); i++) {
-            char ch = segment.charAt(i);
-            sb.append(ch == '\n' ? '\n' : ' ');
+        int state = CODE;
+        int i = 0;
+        while (i < length) {
+            char c = buf[i];
+            switch (state) {
+                case CODE -> {
+                    char next = i + 1 < length ? buf[i + 1] : '\0';
+                    if (c == '/' && next == '/') {
+                        state = LINE_COMMENT;
+                        blank(buf, i, i + 2);
+                        i += 2;
+                    } else if (c == '/' && next == '*') {
+                        state = BLOCK_COMMENT;
+                        blank(buf, i, i + 2);
+                        i += 2;
+                    } else if (c == '"' && next == '"' && i + 2 < length && buf[i + 2] == '"') {
+                        state = TEXT_BLOCK;
+                        i += 3;
+                    } else {
+                        if (c == '"') {
+                            state = STRING;
+                        } else if (c == '\'') {
+                            state = CHAR;
+                        }
+                        i++;
+                    }
+                }
+                case LINE_COMMENT -> {
+                    if (c == '\n' || c == '\r') {
+                        state = CODE;
+                    } else {
+                        buf[i] = ' ';
+                    }
+                    i++;
+                }
+                case BLOCK_COMMENT -> {
+                    if (c == '*' && i + 1 < length && buf[i + 1] == '/') {
+                        state = CODE;
+                        blank(buf, i, i + 2);
+                        i += 2;
+                    } else {
+                        blank(buf, i, i + 1);
+                        i++;
+                    }
+                }
+                case STRING, CHAR -> {
+                    char delimiter = state == STRING ? '"' : '\'';
+                    if (c == delimiter) {
+                        state = CODE;
+                        i++;
+                    } else if (c == '\n' || c == '\r') {
+                        // Unterminated literal: it cannot continue on the next line.
+                        state = CODE;
+                        i++;
+                    } else {
+                        // An escape covers the next character too, so an escaped delimiter does not end it.
+                        boolean escape = c == '\\' && i + 1 < length && buf[i + 1] != '\n' && buf[i + 1] != '\r';
+                        int end = escape ? i + 2 : i + 1;
+                        blank(buf, i, end);
+                        i = end;
+                    }
+                }
+                case TEXT_BLOCK -> {
+                    if (c == '"' && i + 2 < length && buf[i + 1] == '"' && buf[i + 2] == '"') {
+                        state = CODE;
+                        i += 3;
+                    } else {
+                        int end = c == '\\' ? Math.min(i + 2, length) : i + 1;
+                        blank(buf, i, end);
+                        i = end;
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown state " + state);
+            }
         }
-        return sb.toString();
+        return new String(buf, 0, length);
     }
 
-    private static String replaceLiteralPreservingLength(String literal, char delimiter) {
-        if (literal.length() <= 2) {
-            return new String(new char[]{delimiter, delimiter});
+    // Replaces buf[from, to) with spaces, keeping line breaks.
+    private static void blank(char[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = buf[i];
+            if (c != '\n' && c != '\r') {
+                buf[i] = ' ';
+            }
         }
-        return delimiter +
-                " ".repeat(literal.length() - 2) +
-                delimiter;
     }
 }
@@ -2,6 +2,10 @@ package de.burger.forensics.plugin.engine;
 
 import static de.burger.forensics.plugin.engine.JavaPrefilter.prefilterJava;
 
+import de.burger.forensics.plugin.rule.BtmRule;
+import de.burger.forensics.plugin.rule.BytemanStrings;
+import de.burger.forensics.plugin.rule.RuleKind;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -20,6 +24,20 @@ public class JavaRegexParser implements JavaScanner {
     private static final Pattern CASE_PATTERN = Pattern.compile("(?m)^[\\t ]*(case\\s+[^:]*+|default)\\s*:");
     private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
 
+    private final boolean fuseDecisions;
+
+    public JavaRegexParser() {
+        this(false);
+    }
+
+    /**
+     * @param fuseDecisions emit one {@link BtmRule#decision} rule per {@code if} instead of an
+     *                      {@code if-true}/{@code if-false} pair
+     */
+    public JavaRegexParser(boolean fuseDecisions) {
+        this.fuseDecisions = fuseDecisions;
+    }
+
     @Override
     public List<String> scan(
             String text,
@@ -27,11 +45,42 @@ public class JavaRegexParser implements JavaScanner {
             String packagePrefix,
             boolean includeEntryExit,
             int maxStringLength) {
-        List<String> rules = new ArrayList<>();
+        List<BtmRule> rules = scanRules(text, helperFqn, packagePrefix, includeEntryExit, maxStringLength);
+        List<String> rendered = new ArrayList<>(rules.size());
+        for (BtmRule rule : rules) {
+            rendered.add(rule.render());
+        }
+        return rendered;
+    }
+
+    /** Same as {@link #scan} but returns the structured rules instead of their text. */
+    public List<BtmRule> scanRules(
+            String text,
+            String helperFqn,
+            String packagePrefix,
+            boolean includeEntryExit,
+            int maxStringLength) {
+        return scanRules(text, helperFqn, packagePrefix, includeEntryExit, maxStringLength, ScanDeadline.NONE);
+    }
+
+    /**
+     * Same as {@link #scanRules(String, String, String, boolean, int)}, but gives up with a
+     * {@link ScanDeadline.ScanTimeoutException} once {@code deadline} has passed.
+     */
+    public List<BtmRule> scanRules(
+            String text,
+            String helperFqn,
+            String packagePrefix,
+            boolean includeEntryExit,
+            int maxStringLength,
+            ScanDeadline deadline) {
+        List<BtmRule> rules = new ArrayList<>();
         String sanitized = prefilterJava(text);
         LineIndex lineIndex = new LineIndex(text);
+        // The patterns read the source through the deadline; offsets and plain lookups use the string.
+        CharSequence guarded = deadline.guard(sanitized);
 
-        Matcher pkgMatcher = PACKAGE_PATTERN.matcher(sanitized);
+        Matcher pkgMatcher = PACKAGE_PATTERN.matcher(guarded);
         String pkg = pkgMatcher.find() ? pkgMatcher.group(1) : "";
         if (packagePrefix != null
                 && !packagePrefix.isBlank()
@@ -40,7 +89,14 @@ public class JavaRegexParser implements JavaScanner {
             return Collections.emptyList();
         }
 
-        Matcher classMatcher = CLASS_PATTERN.matcher(sanitized);
+        // Bodies are matched in place through matcher regions: braces are paired once per file and no
+        // class or method body is copied.
+        BraceIndex braces = BraceIndex.of(sanitized);
+        Matcher methodMatcher = METHOD_PATTERN.matcher(guarded);
+        Matcher ifMatcher = IF_PATTERN.matcher(guarded);
+        Matcher switchMatcher = SWITCH_PATTERN.matcher(guarded);
+        Matcher caseMatcher = CASE_PATTERN.matcher(guarded);
+        Matcher classMatcher = CLASS_PATTERN.matcher(guarded);
         while (classMatcher.find()) {
             String className = classMatcher.group(1);
             String fqcn = pkg.isBlank() ? className : pkg + "." + className;
@@ -48,101 +104,64 @@ public class JavaRegexParser implements JavaScanner {
             if (openIndex < 0) {
                 continue;
             }
-            int closeIndex = findMatchingBrace(sanitized, openIndex);
-            String bodySanitized = sanitized.substring(openIndex + 1, closeIndex);
-            Matcher methodMatcher = METHOD_PATTERN.matcher(bodySanitized);
+            int closeIndex = braces.closeOf(openIndex);
+            methodMatcher.region(openIndex + 1, closeIndex);
             while (methodMatcher.find()) {
                 String methodName = methodMatcher.group(1);
-                int methodStartInClass = openIndex + 1 + methodMatcher.start();
-                int methodOpen = sanitized.indexOf('{', methodStartInClass);
+                int methodOpen = sanitized.indexOf('{', methodMatcher.start());
                 if (methodOpen < 0) {
                     continue;
                 }
-                int methodClose = findMatchingBrace(sanitized, methodOpen);
-                String methodBodySanitized = sanitized.substring(methodOpen + 1, methodClose);
-                String methodBodyOriginal = text.substring(methodOpen + 1, methodClose);
+                int methodClose = braces.closeOf(methodOpen);
 
                 if (includeEntryExit) {
-                    rules.add(buildEntryRule(helperFqn, fqcn, methodName));
-                    rules.add(buildExitRule(helperFqn, fqcn, methodName));
+                    rules.add(BtmRule.entry(helperFqn, fqcn, methodName));
+                    rules.add(BtmRule.exit(helperFqn, fqcn, methodName));
                 }
 
-                Matcher ifMatcher = IF_PATTERN.matcher(methodBodySanitized);
+                ifMatcher.region(methodOpen + 1, methodClose);
                 while (ifMatcher.find()) {
                     if (ifMatcher.group(1) == null) {
                         continue;
                     }
-                    int offset = methodOpen + 1 + ifMatcher.start();
-                    int line = lineIndex.lineAt(offset);
-                    int condStart = ifMatcher.start(1);
-                    int condEnd = ifMatcher.end(1);
-                    String condRaw = methodBodyOriginal.substring(condStart, condEnd);
-                    String cond = escape(condRaw, maxStringLength);
-                    rules.add(
-                            "RULE " + fqcn + "." + methodName + ":" + line + ":if-true\n"
-                                    + "CLASS " + fqcn + "\n"
-                                    + "METHOD " + methodName + "(..)\n"
-                                    + "HELPER " + helperFqn + "\n"
-                                    + "AT LINE " + line + "\n"
-                                    + "IF (" + condRaw + ")\n"
-                                    + "DO iff(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\""
-                                    + cond + "\", true)\n"
-                                    + "ENDRULE");
-                    rules.add(
-                            "RULE " + fqcn + "." + methodName + ":" + line + ":if-false\n"
-                                    + "CLASS " + fqcn + "\n"
-                                    + "METHOD " + methodName + "(..)\n"
-                                    + "HELPER " + helperFqn + "\n"
-                                    + "AT LINE " + line + "\n"
-                                    + "IF (!(" + condRaw + "))\n"
-                                    + "DO iff(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\""
-                                    + cond + "\", false)\n"
-                                    + "ENDRULE");
+                    int line = lineIndex.lineAt(ifMatcher.start());
+                    String condRaw = text.substring(ifMatcher.start(1), ifMatcher.end(1));
+                    String cond = BytemanStrings.escape(condRaw, maxStringLength);
+                    if (fuseDecisions) {
+                        rules.add(BtmRule.decision(RuleKind.IF, helperFqn, fqcn, methodName, line, condRaw,
+                                List.of("DO iff(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + cond + "\", "
+                                        + BtmRule.DECISION_VARIABLE + ")")));
+                        continue;
+                    }
+                    rules.add(lineRule(RuleKind.IF_TRUE, fqcn, methodName, helperFqn, line, condRaw,
+                            "DO iff(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + cond + "\", true)"));
+                    rules.add(lineRule(RuleKind.IF_FALSE, fqcn, methodName, helperFqn, line, "!(" + condRaw + ")",
+                            "DO iff(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + cond + "\", false)"));
                 }
 
-                Matcher switchMatcher = SWITCH_PATTERN.matcher(methodBodySanitized);
+                switchMatcher.region(methodOpen + 1, methodClose);
                 while (switchMatcher.find()) {
                     if (switchMatcher.group(1) == null) {
                         continue;
                     }
-                    int offset = methodOpen + 1 + switchMatcher.start();
-                    int line = lineIndex.lineAt(offset);
-                    int selectorStart = switchMatcher.start(1);
-                    int selectorEnd = switchMatcher.end(1);
-                    String selectorRaw = methodBodyOriginal.substring(selectorStart, selectorEnd);
-                    String sel = escape(selectorRaw, maxStringLength);
-                    rules.add(
-                            "RULE " + fqcn + "." + methodName + ":" + line + ":when\n"
-                                    + "CLASS " + fqcn + "\n"
-                                    + "METHOD " + methodName + "(..)\n"
-                                    + "HELPER " + helperFqn + "\n"
-                                    + "AT LINE " + line + "\n"
-                                    + "DO sw(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + sel
-                                    + "\")\n"
-                                    + "ENDRULE");
+                    int line = lineIndex.lineAt(switchMatcher.start());
+                    String selectorRaw = text.substring(switchMatcher.start(1), switchMatcher.end(1));
+                    String sel = BytemanStrings.escape(selectorRaw, maxStringLength);
+                    rules.add(lineRule(RuleKind.SWITCH, fqcn, methodName, helperFqn, line, null,
+                            "DO sw(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + sel + "\")"));
                 }
 
-                Matcher caseMatcher = CASE_PATTERN.matcher(methodBodySanitized);
+                caseMatcher.region(methodOpen + 1, methodClose);
                 while (caseMatcher.find()) {
                     if (caseMatcher.group(1) == null) {
                         continue;
                     }
-                    int labelStart = caseMatcher.start(1);
-                    int labelEnd = caseMatcher.end(1);
-                    String labelOriginal = methodBodyOriginal.substring(labelStart, labelEnd);
+                    String labelOriginal = text.substring(caseMatcher.start(1), caseMatcher.end(1));
                     String label = WHITESPACE_PATTERN.matcher(labelOriginal).replaceAll(" ").trim();
-                    int offset = methodOpen + 1 + caseMatcher.start();
-                    int line = lineIndex.lineAt(offset);
-                    String esc = escape(label, maxStringLength);
-                    rules.add(
-                            "RULE " + fqcn + "." + methodName + ":" + line + ":case\n"
-                                    + "CLASS " + fqcn + "\n"
-                                    + "METHOD " + methodName + "(..)\n"
-                                    + "HELPER " + helperFqn + "\n"
-                                    + "AT LINE " + line + "\n"
-                                    + "DO kase(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + esc
-                                    + "\")\n"
-                                    + "ENDRULE");
+                    int line = lineIndex.lineAt(caseMatcher.start());
+                    String esc = BytemanStrings.escape(label, maxStringLength);
+                    rules.add(lineRule(RuleKind.CASE, fqcn, methodName, helperFqn, line, null,
+                            "DO kase(\"" + fqcn + "\",\"" + methodName + "\"," + line + ",\"" + esc + "\")"));
                 }
             }
         }
@@ -150,53 +169,9 @@ public class JavaRegexParser implements JavaScanner {
         return rules;
     }
 
-    private String escape(String value, int limit) {
-        String truncated = value;
-        if (limit > 0 && value.length() > limit) {
-            truncated = value.substring(0, limit) + "…";
-        }
-        return truncated
-                .replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
-    }
-
-    private String buildEntryRule(String helper, String className, String methodName) {
-        return "RULE enter@" + className + "." + methodName + "\n"
-                + "CLASS " + className + "\n"
-                + "METHOD " + methodName + "(..)\n"
-                + "HELPER " + helper + "\n"
-                + "AT ENTRY\n"
-                + "DO enter(\"" + className + "\",\"" + methodName + "\", $LINE)\n"
-                + "ENDRULE";
-    }
-
-    private String buildExitRule(String helper, String className, String methodName) {
-        return "RULE exit@" + className + "." + methodName + "\n"
-                + "CLASS " + className + "\n"
-                + "METHOD " + methodName + "(..)\n"
-                + "HELPER " + helper + "\n"
-                + "AT EXIT\n"
-                + "DO exit(\"" + className + "\",\"" + methodName + "\", $LINE)\n"
-                + "ENDRULE";
-    }
-
-    private int findMatchingBrace(String text, int openIndex) {
-        int depth = 0;
-        for (int i = openIndex; i < text.length(); i++) {
-            char ch = text.charAt(i);
-            if (ch == '{') {
-                depth++;
-            } else if (ch == '}') {
-                depth--;
-                if (depth == 0) {
-                    return i;
-                }
-            }
-        }
-        return text.length() - 1;
+    private static BtmRule lineRule(
+            RuleKind kind, String fqcn, String methodName, String helperFqn, int line, String condition, String action) {
+        return new BtmRule(kind, fqcn, methodName, BtmRule.ANY_SIGNATURE, helperFqn, line, null, null, condition, List.of(action));
     }
 
     private static final class LineIndex {
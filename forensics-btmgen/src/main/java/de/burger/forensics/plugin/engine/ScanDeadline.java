@@ -0,0 +1,109 @@
+package de.burger.forensics.plugin.engine;
+
+// English comments only in code.
+/**
+ * Time budget of one scan over a source file. Regex matching runs over {@link #guard(CharSequence)},
+ * which aborts the match with a {@link ScanTimeoutException} once the budget is used up, so a pattern
+ * that backtracks catastrophically on a pathological file cannot stall the build.
+ *
+ * <p>Not thread-safe: a deadline and its guarded text belong to the thread scanning the file.
+ */
+public final class ScanDeadline {
+    /** A deadline that never expires. */
+    public static final ScanDeadline NONE = new ScanDeadline(0L, 0L);
+
+    // The clock is read once per this many character reads; a regex step reads a few characters at most.
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final long startNanos;
+    private final long budgetNanos;
+
+    private ScanDeadline(long startNanos, long budgetNanos) {
+        this.startNanos = startNanos;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /** Deadline {@code millis} from now; {@link #NONE} if {@code millis} is not positive. */
+    public static ScanDeadline after(long millis) {
+        if (millis <= 0) {
+            return NONE;
+        }
+        return new ScanDeadline(System.nanoTime(), millis * 1_000_000L);
+    }
+
+    public boolean isExpired() {
+        return budgetNanos > 0 && System.nanoTime() - startNanos > budgetNanos;
+    }
+
+    /** Milliseconds since the deadline was started, 0 for {@link #NONE}. */
+    public long elapsedMillis() {
+        return budgetNanos > 0 ? (System.nanoTime() - startNanos) / 1_000_000L : 0L;
+    }
+
+    public void check() {
+        if (isExpired()) {
+            throw new ScanTimeoutException(budgetNanos / 1_000_000L, elapsedMillis());
+        }
+    }
+
+    /** {@code text} itself for {@link #NONE}, else a view of it that checks this deadline while it is read. */
+    public CharSequence guard(CharSequence text) {
+        return budgetNanos > 0 ? new GuardedText(text, 0, text.length()) : text;
+    }
+
+    private final class GuardedText implements CharSequence {
+        private final CharSequence text;
+        private final int offset;
+        private final int length;
+        private int reads;
+
+        GuardedText(CharSequence text, int offset, int length) {
+            this.text = text;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                check();
+            }
+            return text.charAt(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length);
+            }
+            return new GuardedText(text, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return text.subSequence(offset, offset + length).toString();
+        }
+    }
+
+    /** Thrown from a guarded text once the scan of a file has used up its budget. */
+    public static final class ScanTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long elapsedMillis;
+
+        ScanTimeoutException(long budgetMillis, long elapsedMillis) {
+            super("Scan exceeded its budget of " + budgetMillis + " ms after " + elapsedMillis + " ms");
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long elapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
@@ -8,7 +8,12 @@ public final class SourceFileGuards {
 
     public static boolean shouldSkipLargeFile(File file, long maxBytes, Consumer<String> debug) {
         if (maxBytes <= 0) return false;
-        long length = file.length();
+        return shouldSkipLargeFile(file, file.length(), maxBytes, debug);
+    }
+
+    /** Variant for callers that already know the file's {@code length}, e.g. from a directory walk. */
+    public static boolean shouldSkipLargeFile(File file, long length, long maxBytes, Consumer<String> debug) {
+        if (maxBytes <= 0) return false;
         if (length > maxBytes) {
             if (debug != null) {
                 debug.accept("Skipping large file (" + length + " bytes > limit " + maxBytes + "): " + file.getAbsolutePath());
@@ -0,0 +1,128 @@
+package de.burger.forensics.plugin.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the rendered rules of every source file together with their target shard, so that an
+ * incremental run can rescan only changed sources and rebuild just the shards they touch.
+ */
+public final class RuleFragmentStore {
+    private static final int MAGIC = 0x42544d46;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".frag";
+
+    private final Path dir;
+
+    /** One rendered rule and the shard it was written to. */
+    public record Entry(int shard, String rule) {
+    }
+
+    public RuleFragmentStore(File dir) throws IOException {
+        this.dir = Objects.requireNonNull(dir, "dir").toPath();
+        Files.createDirectories(this.dir);
+    }
+
+    public boolean contains(File source) {
+        return Files.isRegularFile(fragmentPath(source));
+    }
+
+    /**
+     * Returns the stored entries of {@code source} in write order, or {@code null} when no fragment
+     * exists. A fragment that cannot be decoded is reported as {@link IOException}.
+     */
+    public List<Entry> read(File source) throws IOException {
+        Path path = fragmentPath(source);
+        try (InputStream raw = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported rule fragment: " + path);
+            }
+            String owner = in.readUTF();
+            if (!owner.equals(key(source))) {
+                throw new IOException("Rule fragment " + path + " belongs to " + owner);
+            }
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int shard = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                entries.add(new Entry(shard, new String(bytes, StandardCharsets.UTF_8)));
+            }
+            return entries;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Replaces the fragment of {@code source}; an empty list records a scanned file without rules. */
+    public void write(File source, List<Entry> entries) throws IOException {
+        Path path = fragmentPath(source);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream raw = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key(source));
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] bytes = entry.rule().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(entry.shard());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public void remove(File source) throws IOException {
+        Files.deleteIfExists(fragmentPath(source));
+    }
+
+    /** Drops all fragments, e.g. before a full regeneration. */
+    public void clear() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (path.getFileName().toString().endsWith(SUFFIX)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private Path fragmentPath(File source) {
+        return dir.resolve(digest(key(source)) + SUFFIX);
+    }
+
+    private static String key(File source) {
+        return source.getAbsolutePath();
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
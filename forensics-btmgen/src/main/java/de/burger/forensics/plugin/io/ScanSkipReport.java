@@ -0,0 +1,86 @@
+package de.burger.forensics.plugin.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Source files whose scan was abandoned because it ran over its time budget, with the time spent on
+ * them. Entries may be recorded from several scan threads at once.
+ *
+ * <p>The report is a text file with one tab separated line per file: elapsed milliseconds, path and
+ * the pass that was abandoned. Lines starting with {@code #} are comments.
+ */
+public final class ScanSkipReport {
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparing(Entry::path).thenComparing(Entry::pass).thenComparingLong(Entry::elapsedMillis);
+
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+    /** One abandoned scan pass over a file. */
+    public record Entry(String path, String pass, long elapsedMillis) {
+    }
+
+    public void record(String path, String pass, long elapsedMillis) {
+        entries.add(new Entry(path, pass, elapsedMillis));
+    }
+
+    public void addAll(List<Entry> more) {
+        entries.addAll(more);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** The entries sorted by path, so that the report does not depend on scan scheduling. */
+    public List<Entry> entries() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(ORDER);
+        return sorted;
+    }
+
+    /** Replaces {@code file} with the report; it is written even without entries. */
+    public void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# Files whose scan ran over the time budget (scanTimeoutMillis)\n");
+            out.write("# elapsed-ms\tpath\tpass\n");
+            for (Entry entry : entries()) {
+                out.write(entry.elapsedMillis() + "\t" + entry.path() + "\t" + entry.pass() + "\n");
+            }
+        }
+    }
+
+    /** Reads a report written by {@link #write}; a missing file has no entries. */
+    public static List<Entry> read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return List.of();
+        }
+        List<Entry> result = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", 3);
+            if (fields.length != 3) {
+                throw new IOException("Malformed scan skip report line in " + file + ": " + line);
+            }
+            try {
+                result.add(new Entry(fields[1], fields[2], Long.parseLong(fields[0])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed scan skip report line in " + file + ": " + line, e);
+            }
+        }
+        return result;
+    }
+}
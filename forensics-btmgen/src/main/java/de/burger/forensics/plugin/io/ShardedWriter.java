@@ -11,6 +11,8 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -19,6 +21,7 @@ import java.util.zip.GZIPOutputStream;
 public final class ShardedWriter implements Closeable, Flushable {
     private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
     private static final int DEFAULT_FLUSH_THRESHOLD = 64 * 1024;
+    private static final Pattern SHARD_FILE_SUFFIX = Pattern.compile("(-\\d{5})?\\.btm(\\.gz)?");
 
     private final File outDir;
     private final Writer[] writers;
@@ -30,6 +33,8 @@ public final class ShardedWriter implements Closeable, Flushable {
     private final long[] lastFlushAtMillis;
     private final int[] rotationIndex;
     private final Object[] shardLocks;
+    // Per-shard copy buffers for rules that are not Strings; guarded like the shard's writer.
+    private final char[][] scratch;
     private final int shards;
     private final boolean gzip;
     private final String filePrefix;
@@ -66,6 +71,27 @@ public final class ShardedWriter implements Closeable, Flushable {
         int flushThresholdBytes,
         long flushIntervalMillis,
         boolean threadSafe
+    ) throws IOException {
+        this(outDir, shards, gzip, filePrefix, rotateMaxBytesPerFile, rotateIntervalSeconds, flushThresholdBytes,
+            flushIntervalMillis, threadSafe, null);
+    }
+
+    /**
+     * Creates a writer that only opens the shards in {@code activeShards}; {@code null} opens all of them.
+     * When a subset is given, the previous files of each opened shard (including rotated ones) are deleted
+     * first, while the files of all other shards are left untouched.
+     */
+    public ShardedWriter(
+        File outDir,
+        int shards,
+        boolean gzip,
+        String filePrefix,
+        long rotateMaxBytesPerFile,
+        long rotateIntervalSeconds,
+        int flushThresholdBytes,
+        long flushIntervalMillis,
+        boolean threadSafe,
+        Set<Integer> activeShards
     ) throws IOException {
         Objects.requireNonNull(outDir, "outDir");
         Objects.requireNonNull(filePrefix, "filePrefix");
@@ -89,6 +115,7 @@ public final class ShardedWriter implements Closeable, Flushable {
         this.lastFlushAtMillis = new long[shardCount];
         this.rotationIndex = new int[shardCount];
         this.shardLocks = threadSafe ? new Object[shardCount] : null;
+        this.scratch = new char[shardCount][];
         if (!outDir.exists() && !outDir.mkdirs()) {
             throw new IOException("Cannot create output dir: " + outDir);
         }
@@ -100,6 +127,12 @@ public final class ShardedWriter implements Closeable, Flushable {
             rotationIndex[i] = rotationEnabled ? 1 : 0;
             openedAtMillis[i] = now;
             lastFlushAtMillis[i] = now;
+            if (activeShards != null) {
+                if (!activeShards.contains(i)) {
+                    continue;
+                }
+                deleteShardFiles(i);
+            }
             openShardWriter(i);
         }
     }
@@ -116,6 +149,9 @@ public final class ShardedWriter implements Closeable, Flushable {
         headerBytes = headerText.getBytes(StandardCharsets.UTF_8).length;
         for (int i = 0; i < writers.length; i++) {
             Writer writer = writers[i];
+            if (writer == null) {
+                continue;
+            }
             writer.write(headerText);
             if (headerBytes > 0) {
                 bytesSinceFlush[i] += headerBytes;
@@ -126,14 +162,18 @@ public final class ShardedWriter implements Closeable, Flushable {
     }
 
     /**
-     * Appends one rule to the target shard. Rules are separated by blank lines.
+     * Appends one rule to the target shard. Rules are separated by blank lines. The text is copied
+     * before the call returns, so a reused buffer such as {@code RuleRenderer}'s may be passed.
      */
-    public void append(int shard, String rule) throws IOException {
+    public void append(int shard, CharSequence rule) throws IOException {
         ensureOpen();
         if (!headerWritten) {
             throw new IllegalStateException("writeHeader must be called before append");
         }
         int target = normalizeShard(shard);
+        if (writers[target] == null) {
+            throw new IllegalArgumentException("Shard " + target + " is not open for writing");
+        }
         if (threadSafe) {
             synchronized (shardLocks[target]) {
                 appendInternal(target, rule);
@@ -193,7 +233,7 @@ public final class ShardedWriter implements Closeable, Flushable {
         }
     }
 
-    private void appendInternal(int shard, String rule) throws IOException {
+    private void appendInternal(int shard, CharSequence rule) throws IOException {
         updateCurrentBytes(shard);
         long now = now();
         if (rotateIntervalMillis > 0 && now - openedAtMillis[shard] >= rotateIntervalMillis) {
@@ -205,7 +245,7 @@ public final class ShardedWriter implements Closeable, Flushable {
             rotateShardLocked(shard);
         }
         Writer writer = writers[shard];
-        writer.write(rule);
+        write(shard, writer, rule);
         writer.write("\n\n");
         shardHasRules[shard] = true;
         bytesSinceFlush[shard] += estimatedBytes;
@@ -223,6 +263,9 @@ public final class ShardedWriter implements Closeable, Flushable {
 
     private void flushShardLocked(int shard) throws IOException {
         Writer writer = writers[shard];
+        if (writer == null) {
+            return;
+        }
         writer.flush();
         updateCurrentBytes(shard);
         bytesSinceFlush[shard] = 0L;
@@ -267,6 +310,20 @@ public final class ShardedWriter implements Closeable, Flushable {
         }
     }
 
+    private void deleteShardFiles(int shard) throws IOException {
+        String base = String.format("%s%04d", filePrefix, shard + 1);
+        File[] existing = outDir.listFiles((dir, name) ->
+            name.startsWith(base) && SHARD_FILE_SUFFIX.matcher(name.substring(base.length())).matches());
+        if (existing == null) {
+            return;
+        }
+        for (File file : existing) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException("Cannot delete previous shard file: " + file);
+            }
+        }
+    }
+
     private IOException closeShard(int shard, IOException failure) {
         Writer writer = writers[shard];
         if (writer == null) {
@@ -302,11 +359,55 @@ public final class ShardedWriter implements Closeable, Flushable {
         }
     }
 
-    private long estimateBytes(String rule) {
-        if (rule == null || rule.isEmpty()) {
+    // Writer.append(CharSequence) would go through toString(), so other sequences are copied in chunks.
+    private void write(int shard, Writer writer, CharSequence rule) throws IOException {
+        if (rule instanceof String text) {
+            writer.write(text);
+            return;
+        }
+        char[] buf = scratch[shard];
+        if (buf == null) {
+            buf = new char[4096];
+            scratch[shard] = buf;
+        }
+        int length = rule.length();
+        for (int start = 0; start < length; start += buf.length) {
+            int end = Math.min(length, start + buf.length);
+            if (rule instanceof StringBuilder builder) {
+                builder.getChars(start, end, buf, 0);
+            } else {
+                for (int i = start; i < end; i++) {
+                    buf[i - start] = rule.charAt(i);
+                }
+            }
+            writer.write(buf, 0, end - start);
+        }
+    }
+
+    // UTF-8 size of the rule plus the blank line after it, counted without encoding the text.
+    private long estimateBytes(CharSequence rule) {
+        if (rule == null) {
             return 2L;
         }
-        return rule.getBytes(StandardCharsets.UTF_8).length + 2L;
+        long bytes = 2L;
+        int length = rule.length();
+        for (int i = 0; i < length; i++) {
+            char c = rule.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(rule.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are encoded as '?'.
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
     }
 
     private String fileName(int shardIndex, int rotationIndex) {
@@ -0,0 +1,211 @@
+package de.burger.forensics.plugin.rule;
+
+import java.util.List;
+import java.util.Objects;
+
+// English comments only in code.
+/**
+ * Structured Byteman rule. Generators build these instead of rule text so that sharding,
+ * prefix filtering and branch grouping are plain field lookups; the text is produced by
+ * {@link #render()} only when the rule is written.
+ *
+ * @param kind       rule kind
+ * @param className  binary name of the target class
+ * @param methodName target method name
+ * @param signature  parameter list rendered inside {@code METHOD name(...)}, {@code ..} for any
+ * @param helper     helper class FQN
+ * @param line       source line; only part of the location and shard key for {@code AT LINE} kinds
+ * @param variable   tracked variable for {@link RuleKind#WRITE} rules, otherwise {@code null}
+ * @param binding    declaration inside {@code BIND ...}, or {@code null} for no BIND clause
+ * @param condition  expression inside {@code IF (...)}, or {@code null} for no IF clause
+ * @param actions    action lines in order, each usually starting with {@code DO}
+ */
+public record BtmRule(
+    RuleKind kind,
+    String className,
+    String methodName,
+    String signature,
+    String helper,
+    int line,
+    String variable,
+    String binding,
+    String condition,
+    List<String> actions
+) {
+    public static final String ANY_SIGNATURE = "..";
+    /** Rule variable a {@link #decision} rule binds the outcome of its condition to. */
+    public static final String DECISION_VARIABLE = "taken";
+
+    public BtmRule {
+        Objects.requireNonNull(kind, "kind");
+        Objects.requireNonNull(className, "className");
+        Objects.requireNonNull(methodName, "methodName");
+        signature = signature == null ? ANY_SIGNATURE : signature;
+        actions = List.copyOf(actions);
+    }
+
+    public static BtmRule entry(String helper, String className, String methodName) {
+        return entry(helper, className, methodName, ANY_SIGNATURE);
+    }
+
+    /** Entry rule of one overload; its name carries an exact {@code signature} to stay unique. */
+    public static BtmRule entry(String helper, String className, String methodName, String signature) {
+        return new BtmRule(RuleKind.ENTRY, className, methodName, signature, helper, 0, null, null, null,
+            List.of("DO enter(\"" + className + "\",\"" + methodName + "\", $LINE)"));
+    }
+
+    public static BtmRule exit(String helper, String className, String methodName) {
+        return exit(helper, className, methodName, ANY_SIGNATURE);
+    }
+
+    /** Exit rule of one overload, see {@link #entry(String, String, String, String)}. */
+    public static BtmRule exit(String helper, String className, String methodName, String signature) {
+        return new BtmRule(RuleKind.EXIT, className, methodName, signature, helper, 0, null, null, null,
+            List.of("DO exit(\"" + className + "\",\"" + methodName + "\", $LINE)"));
+    }
+
+    /**
+     * Fused decision rule of kind {@link RuleKind#IF} or {@link RuleKind#IS}: one trigger at {@code line}
+     * that evaluates {@code condition} once into {@link #DECISION_VARIABLE}, for {@code actions} to pass on,
+     * instead of an {@code IF (cond)} and an {@code IF (!(cond))} rule that each evaluate it.
+     */
+    public static BtmRule decision(
+        RuleKind kind, String helper, String className, String methodName, int line, String condition,
+        List<String> actions
+    ) {
+        return new BtmRule(kind, className, methodName, ANY_SIGNATURE, helper, line, null,
+            DECISION_VARIABLE + ":boolean = (" + condition + ")", "true", actions);
+    }
+
+    /** This rule injected into the overload with parameter list {@code signature} only. */
+    public BtmRule withSignature(String signature) {
+        return new BtmRule(kind, className, methodName, signature, helper, line, variable, binding, condition, actions);
+    }
+
+    /** Rule name as written after {@code RULE}. */
+    public String name() {
+        return appendName(new StringBuilder(96)).toString();
+    }
+
+    public String location() {
+        return appendLocation(new StringBuilder(24)).toString();
+    }
+
+    private StringBuilder appendName(StringBuilder out) {
+        return switch (kind) {
+            case ENTRY -> appendSignature(out.append("enter@").append(className).append('.').append(methodName));
+            case EXIT -> appendSignature(out.append("exit@").append(className).append('.').append(methodName));
+            case WRITE -> out.append(className).append('.').append(methodName).append(':').append(line)
+                .append(":write-").append(variable);
+            default -> out.append(className).append('.').append(methodName).append(':').append(line)
+                .append(kind.nameTail());
+        };
+    }
+
+    // Rules of other kinds are told apart by their line already.
+    private StringBuilder appendSignature(StringBuilder out) {
+        return ANY_SIGNATURE.equals(signature) ? out : out.append('(').append(signature).append(')');
+    }
+
+    private StringBuilder appendLocation(StringBuilder out) {
+        return switch (kind) {
+            case ENTRY -> out.append("AT ENTRY");
+            case EXIT -> out.append("AT EXIT");
+            case WRITE -> out.append("AFTER WRITE $").append(variable);
+            default -> out.append("AT LINE ").append(line);
+        };
+    }
+
+    /** Key used to pick the shard: {@code class#method:line}, line 0 for rules without AT LINE. */
+    public String shardKey() {
+        return className + "#" + methodName + ":" + (kind.isAtLine() ? line : 0);
+    }
+
+    /** {@code shardKey().hashCode()}, computed without building the key. */
+    public int shardKeyHash() {
+        int h = hash(0, className);
+        h = 31 * h + '#';
+        h = hash(h, methodName);
+        h = 31 * h + ':';
+        return hash(h, kind.isAtLine() ? line : 0);
+    }
+
+    // Continues String.hashCode() over the chars of 'text'.
+    private static int hash(int h, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h;
+    }
+
+    // Continues String.hashCode() over the decimal digits of 'value'.
+    private static int hash(int h, int value) {
+        long v = value;
+        if (v < 0) {
+            h = 31 * h + '-';
+            v = -v;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= v) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            h = 31 * h + (char) ('0' + (v / divisor) % 10);
+        }
+        return h;
+    }
+
+    /**
+     * Method key used for {@code minBranchesPerMethod} grouping, {@code null} for entry/exit rules
+     * which are never dropped by that filter.
+     */
+    public String methodKey() {
+        return kind == RuleKind.ENTRY || kind == RuleKind.EXIT ? null : qualifiedMethod();
+    }
+
+    /** {@code class.method}, for every kind. */
+    public String qualifiedMethod() {
+        return className + "." + methodName;
+    }
+
+    public boolean isBranch() {
+        return kind.isBranch();
+    }
+
+    public String render() {
+        return renderTo(new StringBuilder(192)).toString();
+    }
+
+    /**
+     * Appends the text of {@link #render()} to {@code out} piece by piece, without building the name,
+     * the location or the rule as strings of their own, and returns {@code out}.
+     */
+    public StringBuilder renderTo(StringBuilder out) {
+        return renderTo(out, false);
+    }
+
+    /**
+     * Same as {@link #renderTo(StringBuilder)}, with a {@code COMPILE} clause if {@code compile} is set,
+     * so that Byteman compiles the rule to bytecode instead of interpreting it on every hit.
+     */
+    public StringBuilder renderTo(StringBuilder out, boolean compile) {
+        appendName(out.append("RULE ")).append('\n');
+        out.append("CLASS ").append(className).append('\n');
+        out.append("METHOD ").append(methodName).append('(').append(signature).append(")\n");
+        out.append("HELPER ").append(helper).append('\n');
+        if (compile) {
+            out.append("COMPILE\n");
+        }
+        appendLocation(out).append('\n');
+        if (binding != null) {
+            out.append("BIND ").append(binding).append('\n');
+        }
+        if (condition != null) {
+            out.append("IF (").append(condition).append(")\n");
+        }
+        for (int i = 0; i < actions.size(); i++) {
+            out.append(actions.get(i)).append('\n');
+        }
+        return out.append("ENDRULE");
+    }
+}
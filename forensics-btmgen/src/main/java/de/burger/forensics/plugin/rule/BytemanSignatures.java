@@ -0,0 +1,86 @@
+package de.burger.forensics.plugin.rule;
+
+import java.util.regex.Pattern;
+
+// English comments only in code.
+/**
+ * Parameter lists for {@code METHOD name(...)} derived from the Java signatures recorded by the scanner,
+ * e.g. {@code find(List<String>, int...)} gives {@code List,int[]}, so that a rule is injected into one
+ * overload instead of all of them.
+ *
+ * <p>Only types whose JVM name is certain are kept: generic arguments are erased, while a signature with
+ * a type variable or a nested type, whose erasure or binary name the signature does not tell, has no
+ * exact form and its rules keep {@link BtmRule#ANY_SIGNATURE}.
+ */
+public final class BytemanSignatures {
+    // A possibly qualified type name with array dimensions, after erasure and whitespace removal.
+    private static final Pattern TYPE = Pattern.compile("[\\p{L}_$][\\p{L}\\p{N}_$]*(?:\\.[\\p{L}_$][\\p{L}\\p{N}_$]*)*(?:\\[])*");
+    // Conventional type variable names: T, E, K, V, T2, ...
+    private static final Pattern TYPE_VARIABLE = Pattern.compile("\\p{Lu}\\p{N}*");
+
+    private BytemanSignatures() {}
+
+    /**
+     * Comma separated parameter types of {@code signature} ({@code name(T1, T2)}), or {@code null} if
+     * they cannot be stated exactly; an empty string for a method without parameters.
+     */
+    public static String parameters(String signature) {
+        if (signature == null) {
+            return null;
+        }
+        int open = signature.indexOf('(');
+        int close = signature.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(close - open);
+        StringBuilder type = new StringBuilder(32);
+        int nesting = 0;
+        for (int i = open + 1; i <= close; i++) {
+            char c = signature.charAt(i);
+            if (i == close || (c == ',' && nesting == 0)) {
+                if (i == close && type.isEmpty() && out.isEmpty()) {
+                    break;
+                }
+                if (!appendType(out, type)) {
+                    return null;
+                }
+                type.setLength(0);
+            } else if (c == '<') {
+                nesting++;
+            } else if (c == '>') {
+                nesting--;
+            } else if (nesting == 0 && !Character.isWhitespace(c)) {
+                type.append(c);
+            }
+        }
+        return nesting == 0 ? out.toString() : null;
+    }
+
+    private static boolean appendType(StringBuilder out, StringBuilder type) {
+        String name = type.toString();
+        if (name.endsWith("...")) {
+            name = name.substring(0, name.length() - 3) + "[]";
+        }
+        if (!TYPE.matcher(name).matches()) {
+            return false;
+        }
+        int dims = name.indexOf('[');
+        String element = dims < 0 ? name : name.substring(0, dims);
+        int lastDot = element.lastIndexOf('.');
+        if (lastDot < 0 ? TYPE_VARIABLE.matcher(element).matches() : isNested(element, lastDot)) {
+            return false;
+        }
+        if (!out.isEmpty()) {
+            out.append(',');
+        }
+        out.append(name);
+        return true;
+    }
+
+    // Outer.Inner is written Outer$Inner on the JVM; by convention only class names are capitalized.
+    private static boolean isNested(String qualified, int lastDot) {
+        int start = qualified.lastIndexOf('.', lastDot - 1) + 1;
+        return Character.isUpperCase(qualified.charAt(start));
+    }
+}
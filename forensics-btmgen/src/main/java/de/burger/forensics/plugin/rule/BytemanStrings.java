@@ -0,0 +1,76 @@
+package de.burger.forensics.plugin.rule;
+
+// English comments only in code.
+/**
+ * Escaping of source text embedded in Byteman string literals, e.g. the condition passed to
+ * {@code iff(...)}. Backslash, quote, newline, carriage return and tab are escaped; text longer than the
+ * limit is cut to that many chars and suffixed with {@link #ELLIPSIS}. Both happen in one pass over the
+ * input.
+ */
+public final class BytemanStrings {
+    /** Suffix of text cut to the length limit. */
+    public static final String ELLIPSIS = "…";
+
+    private BytemanStrings() {}
+
+    /**
+     * {@code value} escaped and, when {@code maxLength > 0}, cut to {@code maxLength} chars. Returns
+     * {@code value} itself when it needs neither.
+     */
+    public static String escape(String value, int maxLength) {
+        int end = cutLength(value, maxLength);
+        int first = 0;
+        while (first < end && replacement(value.charAt(first)) == 0) {
+            first++;
+        }
+        if (first == end && end == value.length()) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(end + 16);
+        out.append(value, 0, first);
+        appendEscaped(out, value, first, end);
+        if (end < value.length()) {
+            out.append(ELLIPSIS);
+        }
+        return out.toString();
+    }
+
+    /** Appends what {@link #escape(String, int)} returns for {@code value} to {@code out}. */
+    public static StringBuilder escapeTo(StringBuilder out, CharSequence value, int maxLength) {
+        int end = cutLength(value, maxLength);
+        appendEscaped(out, value, 0, end);
+        if (end < value.length()) {
+            out.append(ELLIPSIS);
+        }
+        return out;
+    }
+
+    private static int cutLength(CharSequence value, int maxLength) {
+        return maxLength > 0 && value.length() > maxLength ? maxLength : value.length();
+    }
+
+    // Copies runs of plain chars in one call each and escapes the chars between them.
+    private static void appendEscaped(StringBuilder out, CharSequence value, int from, int to) {
+        int runStart = from;
+        for (int i = from; i < to; i++) {
+            char escaped = replacement(value.charAt(i));
+            if (escaped != 0) {
+                out.append(value, runStart, i).append('\\').append(escaped);
+                runStart = i + 1;
+            }
+        }
+        out.append(value, runStart, to);
+    }
+
+    // The char written after the backslash for 'c', or 0 when 'c' is kept as is.
+    private static char replacement(char c) {
+        return switch (c) {
+            case '\\' -> '\\';
+            case '"' -> '"';
+            case '\n' -> 'n';
+            case '\r' -> 'r';
+            case '\t' -> 't';
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package de.burger.forensics.plugin.rule;
+
+import de.burger.forensics.plugin.scan.PackagePrefixFilter;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// English comments only in code.
+/**
+ * Selects the rules rendered with Byteman's {@code COMPILE} clause. Compiled rules cost a class generation
+ * when they are injected but run at bytecode speed on every hit, which pays off for hot code only.
+ *
+ * <p>A rule is compiled if all rules are, or if at least one of package prefixes and kinds is given and
+ * the rule matches each one given: with both, only rules of those kinds in those packages are compiled.
+ * Instances are immutable.
+ */
+public final class CompilePolicy {
+    /** Compiles no rule. */
+    public static final CompilePolicy NONE = new CompilePolicy(false, null, Set.of());
+
+    private final boolean all;
+    private final PackagePrefixFilter packages;
+    private final Set<RuleKind> kinds;
+
+    private CompilePolicy(boolean all, PackagePrefixFilter packages, Set<RuleKind> kinds) {
+        this.all = all;
+        this.packages = packages;
+        this.kinds = kinds;
+    }
+
+    /**
+     * @param all      compile every rule
+     * @param packages package or class name prefixes of the rules to compile; blank ones are ignored
+     * @param kinds    kinds of the rules to compile
+     */
+    public static CompilePolicy of(boolean all, Collection<String> packages, Collection<RuleKind> kinds) {
+        List<String> prefixes = packages.stream().filter(p -> p != null && !p.isBlank()).toList();
+        Set<RuleKind> kindSet = kinds.isEmpty() ? Set.of() : EnumSet.copyOf(kinds);
+        if (!all && prefixes.isEmpty() && kindSet.isEmpty()) {
+            return NONE;
+        }
+        return new CompilePolicy(all, prefixes.isEmpty() ? null : PackagePrefixFilter.of(prefixes, List.of()), kindSet);
+    }
+
+    public boolean compiles(BtmRule rule) {
+        if (all) {
+            return true;
+        }
+        if (packages == null && kinds.isEmpty()) {
+            return false;
+        }
+        return (kinds.isEmpty() || kinds.contains(rule.kind()))
+            && (packages == null || packages.accepts(rule.className()));
+    }
+}
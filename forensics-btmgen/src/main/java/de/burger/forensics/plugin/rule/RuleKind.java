@@ -0,0 +1,80 @@
+package de.burger.forensics.plugin.rule;
+
+import java.util.Locale;
+
+// English comments only in code.
+/**
+ * Kind of a generated Byteman rule. Carries the rule-name suffix, how many branch outcomes the rule
+ * reports for {@code minBranchesPerMethod}, and whether it is anchored with {@code AT LINE}.
+ */
+public enum RuleKind {
+    ENTRY(null, 0, false),
+    EXIT(null, 0, false),
+    IF_TRUE("if-true", 1, true),
+    IF_FALSE("if-false", 1, true),
+    /** Fused decision rule reporting both outcomes of an {@code if}, see {@link BtmRule#decision}. */
+    IF("if", 2, true),
+    IS_TRUE("is-true", 1, true),
+    IS_FALSE("is-false", 1, true),
+    /** Fused decision rule reporting both outcomes of an {@code is} check. */
+    IS("is", 2, true),
+    SWITCH("when", 1, true),
+    CASE("case", 1, true),
+    WRITE("write", 0, false);
+
+    private final String suffix;
+    // Fixed tail of the rule name, ":" + suffix, built once instead of per rendered rule.
+    private final String nameTail;
+    private final int branches;
+    private final boolean atLine;
+
+    RuleKind(String suffix, int branches, boolean atLine) {
+        this.suffix = suffix;
+        this.nameTail = suffix == null ? null : ":" + suffix;
+        this.branches = branches;
+        this.atLine = atLine;
+    }
+
+    /**
+     * Name of the kind in build settings: the rule-name suffix, or {@code entry}/{@code exit}, e.g.
+     * {@code if-true} or {@code when}.
+     */
+    public String id() {
+        return suffix != null ? suffix : name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Kind with {@link #id()} or enum name {@code id}, ignoring case; {@code null} if there is none. */
+    public static RuleKind fromId(String id) {
+        for (RuleKind kind : values()) {
+            if (kind.id().equalsIgnoreCase(id) || kind.name().equalsIgnoreCase(id)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    /** Suffix used in the rule name, e.g. {@code if-true}; {@code null} for entry/exit rules. */
+    public String suffix() {
+        return suffix;
+    }
+
+    String nameTail() {
+        return nameTail;
+    }
+
+    public boolean isBranch() {
+        return branches > 0;
+    }
+
+    /**
+     * Branch outcomes the rule reports: 1 for a rule per outcome, 2 for a fused decision rule, so that a
+     * {@code minBranchesPerMethod} threshold keeps the same methods whether decisions are fused or not.
+     */
+    public int branches() {
+        return branches;
+    }
+
+    public boolean isAtLine() {
+        return atLine;
+    }
+}
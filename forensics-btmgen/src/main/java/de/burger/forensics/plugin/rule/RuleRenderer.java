@@ -0,0 +1,35 @@
+package de.burger.forensics.plugin.rule;
+
+// English comments only in code.
+/**
+ * Renders rules into one reusable buffer, so that streaming rules to a writer produces no garbage
+ * per rule beyond what the rule itself holds. The returned text is only valid until the next call.
+ *
+ * <p>Not thread-safe: use one renderer per writing thread.
+ */
+public final class RuleRenderer {
+    // A buffer that grew beyond this size for an unusually long rule is not kept.
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+    private final CompilePolicy compilePolicy;
+    private StringBuilder buffer = new StringBuilder(512);
+
+    public RuleRenderer() {
+        this(CompilePolicy.NONE);
+    }
+
+    /** Renders the rules selected by {@code compilePolicy} with a {@code COMPILE} clause. */
+    public RuleRenderer(CompilePolicy compilePolicy) {
+        this.compilePolicy = compilePolicy;
+    }
+
+    /** Text of {@code rule}, as {@link BtmRule#render()}, in the renderer's buffer. */
+    public CharSequence render(BtmRule rule) {
+        if (buffer.capacity() > MAX_RETAINED_CHARS) {
+            buffer = new StringBuilder(512);
+        } else {
+            buffer.setLength(0);
+        }
+        return rule.renderTo(buffer, compilePolicy.compiles(rule));
+    }
+}
@@ -0,0 +1,102 @@
+package de.burger.forensics.plugin.scan;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// English comments only in code.
+/**
+ * Include/exclude package prefixes held in character tries, so a name is checked against all prefixes
+ * in one pass over its characters instead of one {@code startsWith} per prefix.
+ *
+ * <p>Blank prefixes are ignored. An empty include list accepts every name. Instances are immutable and
+ * safe to share between scan threads.
+ */
+public final class PackagePrefixFilter {
+    private static final PackagePrefixFilter ACCEPT_ALL = new PackagePrefixFilter(null, null);
+
+    private final Node includes;
+    private final Node excludes;
+
+    private PackagePrefixFilter(Node includes, Node excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    public static PackagePrefixFilter of(Collection<String> includes, Collection<String> excludes) {
+        Node in = trie(includes);
+        Node ex = trie(excludes);
+        return in == null && ex == null ? ACCEPT_ALL : new PackagePrefixFilter(in, ex);
+    }
+
+    /** True if {@code name} (a package or class name) starts with an include and with no exclude. */
+    public boolean accepts(String name) {
+        return (includes == null || includes.hasPrefixOf(name)) && (excludes == null || !excludes.hasPrefixOf(name));
+    }
+
+    /**
+     * True unless no class of package {@code pkg} can be accepted, i.e. {@code pkg + "." + simpleName}
+     * cannot start with an include for any simple name. The default package ({@code ""}) always qualifies.
+     */
+    public boolean mayAcceptClassesIn(String pkg) {
+        if (excludes != null && excludes.hasPrefixOf(pkg)) {
+            return false;
+        }
+        return includes == null || pkg.isEmpty() || includes.hasPrefixOfOrExtends(pkg, '.');
+    }
+
+    private static Node trie(Collection<String> prefixes) {
+        if (prefixes == null) {
+            return null;
+        }
+        Node root = null;
+        for (String prefix : prefixes) {
+            if (prefix == null || prefix.isBlank()) {
+                continue;
+            }
+            if (root == null) {
+                root = new Node();
+            }
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+            }
+            node.terminal = true;
+        }
+        return root;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private boolean terminal;
+
+        boolean hasPrefixOf(String name) {
+            Node node = this;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.children.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Whether some prefix is a prefix of name + last, or name + last is a prefix of some prefix.
+        boolean hasPrefixOfOrExtends(String name, char last) {
+            Node node = this;
+            for (int i = 0; i <= name.length(); i++) {
+                node = node.children.get(i < name.length() ? name.charAt(i) : last);
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package de.burger.forensics.plugin.scan;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// English comments only in code.
+/**
+ * Reads the package of a Java or Kotlin source from its leading characters only, so files outside the
+ * traced packages can be rejected before they are read in full and parsed.
+ *
+ * <p>Only comments and whitespace may precede the {@code package} declaration. Whenever the header is
+ * not that simple (annotations, escaped identifiers, a header longer than {@link #MAX_HEADER_CHARS})
+ * the package is reported as unknown and the caller has to parse the file.
+ */
+public final class PackageSniffer {
+    static final int MAX_HEADER_CHARS = 16 * 1024;
+
+    private PackageSniffer() {
+    }
+
+    /** Package of {@code file}, {@code ""} for the default package, or {@code null} if unknown. */
+    public static String sniff(Path file) {
+        boolean kotlin = file.getFileName().toString().endsWith(".kt");
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return sniff(reader, kotlin);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static String sniff(Reader reader, boolean kotlin) throws IOException {
+        Header header = new Header(reader);
+        if (kotlin && header.peek() == '#') {
+            header.skipLine(); // shebang
+        }
+        header.skipTrivia(kotlin);
+        int c = header.peek();
+        if (c < 0) {
+            return header.exhausted() ? null : "";
+        }
+        if (!Character.isJavaIdentifierStart(c)) {
+            return null;
+        }
+        if (!"package".equals(header.readIdentifier())) {
+            // Any other first token (import, class, fun, ...) means the default package.
+            return "";
+        }
+        StringBuilder name = new StringBuilder();
+        while (true) {
+            header.skipTrivia(kotlin);
+            c = header.peek();
+            if (c < 0 || !Character.isJavaIdentifierStart(c)) {
+                return null;
+            }
+            name.append(header.readIdentifier());
+            header.skipTrivia(kotlin);
+            if (header.peek() != '.') {
+                break;
+            }
+            header.read();
+            name.append('.');
+        }
+        c = header.peek();
+        // Java ends the declaration with ';'; in Kotlin the name is complete once no '.' follows.
+        if (kotlin || c == ';') {
+            return name.toString();
+        }
+        return null;
+    }
+
+    private static final class Header {
+        private final Reader reader;
+        private int next = -2;
+        private int consumed;
+
+        Header(Reader reader) {
+            this.reader = reader;
+        }
+
+        int peek() throws IOException {
+            if (next == -2) {
+                next = consumed >= MAX_HEADER_CHARS ? -1 : reader.read();
+                if (next == '\uFEFF' && consumed == 0) {
+                    consumed++;
+                    next = reader.read();
+                }
+            }
+            return next;
+        }
+
+        int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                consumed++;
+                next = -2;
+            }
+            return c;
+        }
+
+        boolean exhausted() {
+            return consumed >= MAX_HEADER_CHARS;
+        }
+
+        void skipLine() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c >= 0 && c != '\n');
+        }
+
+        String readIdentifier() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (peek() >= 0 && Character.isJavaIdentifierPart(peek())) {
+                sb.append((char) read());
+            }
+            return sb.toString();
+        }
+
+        // Skips whitespace and comments; Kotlin block comments nest.
+        void skipTrivia(boolean kotlin) throws IOException {
+            while (true) {
+                int c = peek();
+                if (c >= 0 && Character.isWhitespace(c)) {
+                    read();
+                    continue;
+                }
+                if (c != '/') {
+                    return;
+                }
+                read();
+                int second = peek();
+                if (second == '/') {
+                    skipLine();
+                } else if (second == '*') {
+                    read();
+                    skipBlockComment(kotlin);
+                } else {
+                    // A lone '/' cannot start a header; leave it for the caller to give up on.
+                    next = '/';
+                    return;
+                }
+            }
+        }
+
+        private void skipBlockComment(boolean kotlin) throws IOException {
+            int depth = 1;
+            int prev = 0;
+            while (depth > 0) {
+                int c = read();
+                if (c < 0) {
+                    return;
+                }
+                if (prev == '*' && c == '/') {
+                    depth--;
+                    c = 0;
+                } else if (kotlin && prev == '/' && c == '*') {
+                    depth++;
+                    c = 0;
+                }
+                prev = c;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package de.burger.forensics.plugin.scan;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// English comments only in code.
+/**
+ * Bounded worker pool that scans source files concurrently and hands the per-file results back
+ * in input order, so everything downstream sees exactly what a sequential run would produce.
+ *
+ * <p>At most {@code 2 * parallelism} files are in flight at any time; results are delivered to
+ * the sink on the calling thread, which therefore needs no synchronization of its own.
+ */
+public final class ParallelScanEngine implements AutoCloseable {
+    private static final AtomicInteger POOL_IDS = new AtomicInteger();
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public ParallelScanEngine(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        if (this.parallelism == 1) {
+            this.executor = null;
+            return;
+        }
+        int poolId = POOL_IDS.incrementAndGet();
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "btmgen-scan-" + poolId + "-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Applies {@code task} to every input and passes the results to {@code sink} in input order.
+     * A failure of one task is rethrown on the calling thread; pending tasks are cancelled.
+     */
+    public <I, R> void forEachOrdered(List<I> inputs, Function<? super I, ? extends R> task, Consumer<? super R> sink) {
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(task, "task");
+        Objects.requireNonNull(sink, "sink");
+        if (executor == null || inputs.size() <= 1) {
+            for (I input : inputs) {
+                sink.accept(task.apply(input));
+            }
+            return;
+        }
+        int window = parallelism * 2;
+        ArrayDeque<Future<? extends R>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+        try {
+            while (next < inputs.size() || !inFlight.isEmpty()) {
+                while (next < inputs.size() && inFlight.size() < window) {
+                    I input = inputs.get(next++);
+                    inFlight.add(executor.submit(() -> task.apply(input)));
+                }
+                sink.accept(await(inFlight.poll()));
+            }
+        } finally {
+            inFlight.forEach(pending -> pending.cancel(true));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <R> R await(Future<? extends R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for scan results");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package de.burger.forensics.plugin.scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// English comments only in code.
+/**
+ * Binary file carrying the scan results of a source tree from the scan task to the render task.
+ *
+ * <p>Files are stored in scan order. Strings are interned per artifact: the first occurrence is
+ * written inline, later ones as a back reference, which keeps the repeated class, method and
+ * signature names of the events compact.
+ */
+public final class ScanArtifact {
+    private static final int MAGIC = 0x42544d45;
+    private static final int VERSION = 1;
+    private static final int NULL_REF = -1;
+
+    private ScanArtifact() {
+    }
+
+    /**
+     * Scan result of one source file. {@code missingJavaMethods} lists the {@code Class.method} keys
+     * the regex fallback has to cover; {@code fallbackSource} is the Java text for it, or null.
+     */
+    public record FileScan(String path, List<ScanEvent> events, Set<String> missingJavaMethods, String fallbackSource) {
+        public FileScan {
+            Objects.requireNonNull(path, "path");
+            events = List.copyOf(events);
+            missingJavaMethods = Set.copyOf(missingJavaMethods);
+        }
+    }
+
+    /** Streams file scans into an artifact. */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        public Writer(Path file) throws IOException {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(ScannerFacade.SCANNER_VERSION);
+        }
+
+        public void write(FileScan scan) throws IOException {
+            out.writeBoolean(true);
+            writeString(scan.path());
+            out.writeInt(scan.events().size());
+            for (ScanEvent event : scan.events()) {
+                writeString(event.language());
+                writeString(event.fqcn());
+                writeString(event.method());
+                writeString(event.signature());
+                writeString(event.kind());
+                out.writeInt(event.line());
+                writeString(event.conditionText());
+            }
+            out.writeInt(scan.missingJavaMethods().size());
+            for (String method : scan.missingJavaMethods().stream().sorted().toList()) {
+                writeString(method);
+            }
+            writeString(scan.fallbackSource());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeBoolean(false);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_REF);
+                return;
+            }
+            Integer ref = strings.get(value);
+            if (ref != null) {
+                out.writeInt(ref);
+                return;
+            }
+            int id = strings.size();
+            strings.put(value, id);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(id);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** Reads all file scans of {@code file} in scan order. */
+    public static List<FileScan> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported scan artifact: " + file);
+            }
+            String scannerVersion = in.readUTF();
+            if (!scannerVersion.equals(ScannerFacade.SCANNER_VERSION)) {
+                throw new IOException("Scan artifact " + file + " was written by scanner version " + scannerVersion
+                    + ", expected " + ScannerFacade.SCANNER_VERSION);
+            }
+            List<String> strings = new ArrayList<>();
+            List<FileScan> scans = new ArrayList<>();
+            while (in.readBoolean()) {
+                String path = readString(in, strings);
+                int eventCount = in.readInt();
+                List<ScanEvent> events = new ArrayList<>(eventCount);
+                for (int i = 0; i < eventCount; i++) {
+                    events.add(new ScanEvent(
+                        readString(in, strings), readString(in, strings), readString(in, strings),
+                        readString(in, strings), readString(in, strings), in.readInt(), readString(in, strings)));
+                }
+                int missingCount = in.readInt();
+                Set<String> missing = new LinkedHashSet<>();
+                for (int i = 0; i < missingCount; i++) {
+                    missing.add(readString(in, strings));
+                }
+                scans.add(new FileScan(path, events, missing, readString(in, strings)));
+            }
+            return scans;
+        }
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int ref = in.readInt();
+        if (ref == NULL_REF) {
+            return null;
+        }
+        if (ref < strings.size()) {
+            return strings.get(ref);
+        }
+        if (ref != strings.size()) {
+            throw new IOException("Corrupt scan artifact: string reference " + ref);
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+}
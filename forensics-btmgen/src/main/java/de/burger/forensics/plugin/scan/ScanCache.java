@@ -0,0 +1,254 @@
+package de.burger.forensics.plugin.scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// English comments only in code.
+/**
+ * Persistent, content-addressed cache of scan results. Entries are keyed by the hash of the file
+ * content, its name, the package filters and the scanner version, so identical sources hit the cache
+ * across checkouts, branches and builds.
+ *
+ * <p>Each entry is a separate file written via atomic rename, which keeps concurrent scan workers
+ * and concurrent builds sharing the directory safe without locking. A hit refreshes the entry's
+ * modification time; {@link #close()} evicts the least recently used entries above the size cap.
+ */
+public final class ScanCache implements AutoCloseable {
+    private static final int MAGIC = 0x42544d53;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".scan";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ScanCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Objects.requireNonNull(dir, "dir");
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+    }
+
+    /** Cache key for scanning {@code content} of a file named {@code fileName} with the given filters. */
+    public static String key(
+        String scannerVersion,
+        String fileName,
+        List<String> includePkgs,
+        List<String> excludePkgs,
+        byte[] content
+    ) {
+        MessageDigest digest = sha256();
+        update(digest, scannerVersion);
+        update(digest, fileName);
+        update(digest, String.join(",", includePkgs));
+        update(digest, String.join(",", excludePkgs));
+        digest.update(content);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Returns the cached events for {@code key}, or {@code null} on a miss. Unreadable entries count as misses. */
+    public List<ScanEvent> get(String key) {
+        Path path = entryPath(key);
+        try (InputStream raw = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+                throw new IOException("Unsupported scan cache entry: " + path);
+            }
+            int count = in.readInt();
+            List<ScanEvent> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                events.add(new ScanEvent(
+                    readString(in), readString(in), readString(in), readString(in), readString(in),
+                    in.readInt(), readString(in)));
+            }
+            touch(path);
+            hits.incrementAndGet();
+            return events;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // Truncated or foreign entry: drop it and rescan.
+            deleteQuietly(path);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** Stores {@code events} under {@code key}; failures only cost a later rescan. */
+    public void put(String key, List<ScanEvent> events) {
+        Path path = entryPath(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            // Unique per writer, also across processes sharing the cache directory.
+            tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (OutputStream raw = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeInt(events.size());
+                for (ScanEvent event : events) {
+                    writeString(out, event.language());
+                    writeString(out, event.fqcn());
+                    writeString(out, event.method());
+                    writeString(out, event.signature());
+                    writeString(out, event.kind());
+                    out.writeInt(event.line());
+                    writeString(out, event.conditionText());
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (tmp != null) {
+                deleteQuietly(tmp);
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits into its size cap. Failures only delay
+     * eviction: entries removed concurrently by another build are skipped, and an unreadable directory
+     * leaves the cache to the next trim.
+     */
+    public void trim() {
+        if (maxBytes <= 0) {
+            return;
+        }
+        record Candidate(Path path, long size, FileTime lastUsed) {
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, Set.of(), 2, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().endsWith(SUFFIX)) {
+                        candidates.add(new Candidate(file, attrs.size(), attrs.lastModifiedTime()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Evicted concurrently by another build.
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // Retried by the next trim.
+            return;
+        }
+        long total = 0;
+        for (Candidate candidate : candidates) {
+            total += candidate.size();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        candidates.sort(Comparator.comparing(Candidate::lastUsed));
+        for (Candidate candidate : candidates) {
+            if (total <= maxBytes) break;
+            deleteQuietly(candidate.path());
+            total -= candidate.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        trim();
+    }
+
+    private Path entryPath(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // LRU order is best effort.
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Retried by the next eviction.
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -2,16 +2,62 @@ package de.burger.forensics.plugin.scan;
 
 import de.burger.forensics.plugin.scan.java.JavaAstScanner;
 import de.burger.forensics.plugin.scan.kotlin.KotlinAstScanner;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 // English comments only in code.
 public final class ScannerFacade {
+    /** Identifies the scanners' output format; bump whenever the events produced for a source change. */
+    public static final String SCANNER_VERSION = "5";
+
     private final SourceScanner javaScanner = new JavaAstScanner();
-    private final SourceScanner kotlinScanner = new KotlinAstScanner();
+    private final SourceScanner kotlinScanner;
+    private final ScanCache cache;
+    private final String cacheVersion;
+
+    public ScannerFacade() {
+        this(null);
+    }
+
+    /** Looks up single source files in {@code cache} (may be null) before scanning them. */
+    public ScannerFacade(ScanCache cache) {
+        this(cache, new KotlinAstScanner(), null);
+    }
+
+    /**
+     * Scans Kotlin sources with {@code kotlinScanner} instead of the default {@link KotlinAstScanner}.
+     * {@code kotlinScannerId} names that scanner in the cache keys, so its results never mix with the
+     * default scanner's.
+     */
+    public ScannerFacade(ScanCache cache, SourceScanner kotlinScanner, String kotlinScannerId) {
+        this.cache = cache;
+        this.kotlinScanner = kotlinScanner;
+        this.cacheVersion = kotlinScannerId == null ? SCANNER_VERSION : SCANNER_VERSION + "+" + kotlinScannerId;
+    }
 
     public List<ScanEvent> scan(Path root, List<String> includePkgs, List<String> excludePkgs) {
+        if (cache == null || !Files.isRegularFile(root)) {
+            return scanUncached(root, includePkgs, excludePkgs);
+        }
+        String key;
+        try {
+            key = ScanCache.key(cacheVersion, root.getFileName().toString(), includePkgs, excludePkgs, Files.readAllBytes(root));
+        } catch (IOException e) {
+            return scanUncached(root, includePkgs, excludePkgs);
+        }
+        List<ScanEvent> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<ScanEvent> events = scanUncached(root, includePkgs, excludePkgs);
+        cache.put(key, events);
+        return events;
+    }
+
+    private List<ScanEvent> scanUncached(Path root, List<String> includePkgs, List<String> excludePkgs) {
         var events = new ArrayList<ScanEvent>();
         events.addAll(javaScanner.scan(root, includePkgs, excludePkgs));
         events.addAll(kotlinScanner.scan(root, includePkgs, excludePkgs));
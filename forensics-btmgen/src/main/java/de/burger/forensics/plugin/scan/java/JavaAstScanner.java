@@ -1,10 +1,16 @@
 package de.burger.forensics.plugin.scan.java;
 
-import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Position;
+import com.github.javaparser.Range;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
 import com.github.javaparser.ast.body.EnumDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.RecordDeclaration;
 import com.github.javaparser.ast.nodeTypes.NodeWithName;
@@ -13,36 +19,61 @@ import com.github.javaparser.ast.stmt.ReturnStmt;
 import com.github.javaparser.ast.stmt.SwitchEntry;
 import com.github.javaparser.ast.stmt.SwitchStmt;
 import com.github.javaparser.ast.stmt.ThrowStmt;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import com.github.javaparser.resolution.TypeSolver;
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import de.burger.forensics.plugin.scan.PackagePrefixFilter;
+import de.burger.forensics.plugin.scan.PackageSniffer;
 import de.burger.forensics.plugin.scan.ScanEvent;
 import de.burger.forensics.plugin.scan.SourceScanner;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 // English comments only in code.
+/**
+ * Java scanner based on JavaParser. Safe to call from several threads at once: every thread parses with
+ * its own {@link JavaParser}, while the type solvers are shared per source root so that their caches of
+ * parsed types stay warm across files. The solvers' caches are concurrent, so sharing them is safe.
+ *
+ * <p>The events only need syntax, so by default the scanner parses without a symbol solver and without
+ * attributing comments. Symbol resolution is set up only for scanners created with
+ * {@code resolveSymbols = true}.
+ */
 public final class JavaAstScanner implements SourceScanner {
+    private static final Path NO_SOURCE_ROOT = Path.of("");
+    // JavaParser defaults to Java 11 and would reject records and instanceof patterns. JAVA_17 rather than
+    // newer because the javaparser 3.25 shipped with the plugin has no JAVA_21 yet.
+    private static final ParserConfiguration.LanguageLevel LANGUAGE_LEVEL = ParserConfiguration.LanguageLevel.JAVA_17;
+
+    private final boolean resolveSymbols;
+    private final ConcurrentMap<Path, TypeSolver> typeSolvers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Path, JavaParser>> parsers = ThreadLocal.withInitial(HashMap::new);
+
+    public JavaAstScanner() {
+        this(false);
+    }
+
+    public JavaAstScanner(boolean resolveSymbols) {
+        this.resolveSymbols = resolveSymbols;
+    }
 
     @Override
     public List<ScanEvent> scan(Path root, List<String> includePkgs, List<String> excludePkgs) {
         var out = new ArrayList<ScanEvent>();
-        CombinedTypeSolver typeSolver = new CombinedTypeSolver(new ReflectionTypeSolver(false));
-        if (Files.isDirectory(root)) {
-            typeSolver.add(new JavaParserTypeSolver(root));
-        } else {
-            Path parent = root.getParent();
-            if (parent != null && Files.isDirectory(parent)) {
-                typeSolver.add(new JavaParserTypeSolver(parent));
-            }
-        }
-        StaticJavaParser.getParserConfiguration().setSymbolResolver(new JavaSymbolSolver(typeSolver));
+        PackagePrefixFilter filter = PackagePrefixFilter.of(includePkgs, excludePkgs);
+        boolean directoryRoot = Files.isDirectory(root);
 
         // Walk filesystem with bounded depth and skip directory symlinks to avoid pathological recursion.
         try {
@@ -57,13 +88,22 @@ public final class JavaAstScanner implements SourceScanner {
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
                     String name = file.getFileName().toString();
                     if (!name.endsWith(".java")) return FileVisitResult.CONTINUE;
+                    // Reject files outside the packages from their header, before parsing.
+                    String sniffed = PackageSniffer.sniff(file);
+                    if (sniffed != null && !filter.accepts(sniffed)) return FileVisitResult.CONTINUE;
                     try {
-                        CompilationUnit cu = StaticJavaParser.parse(file);
+                        Path sourceRoot = !resolveSymbols ? NO_SOURCE_ROOT : directoryRoot ? root : sourceRootOf(file, sniffed);
+                        String text = Files.readString(file);
+                        ParseResult<CompilationUnit> parsed = parserFor(sourceRoot).parse(text);
+                        if (!parsed.isSuccessful() || parsed.getResult().isEmpty()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        CompilationUnit cu = parsed.getResult().get();
                         String pkg = cu.getPackageDeclaration().map(NodeWithName::getNameAsString).orElse("");
-                        if (!include(pkg, includePkgs) || exclude(pkg, excludePkgs)) {
+                        if (!filter.accepts(pkg)) {
                             return FileVisitResult.CONTINUE;
                         }
-                        cu.findAll(MethodDeclaration.class).forEach(md -> collectMethodEvents(md, out, pkg));
+                        cu.accept(new EventCollector(pkg, new SourceText(text), out), null);
                     } catch (IOException | RuntimeException ignored) {
                         // Ignore parsing failures for now.
                     }
@@ -76,88 +116,258 @@ public final class JavaAstScanner implements SourceScanner {
         return out;
     }
 
-    private void collectMethodEvents(MethodDeclaration declaration, List<ScanEvent> out, String pkg) {
-        String typeName = resolveEnclosingType(declaration);
-        if (typeName.isEmpty()) {
-            return;
-        }
-        String fqcn = pkg.isEmpty() ? typeName : pkg + "." + typeName;
-        String methodName = declaration.getNameAsString();
-        String signature = declaration.getSignature().asString();
-
-        // Walk each if/else-if chain iteratively and emit true/false events.
-        declaration.findAll(IfStmt.class).forEach(i0 -> {
-            IfStmt cur = i0;
-            while (cur != null) {
-                var cond = cur.getCondition();
-                int line = cond.getBegin().map(p -> p.line).orElse(-1);
-                out.add(new ScanEvent("java", fqcn, methodName, signature, "if-true", line, cond.toString()));
-
-                // Emit false-branch only if there is an else branch
-                if (cur.getElseStmt().isPresent()) {
-                    // Keep the original condition text for if-false to match expectations (no textual negation)
-                    out.add(new ScanEvent("java", fqcn, methodName, signature, "if-false", line, cond.toString()));
+    private JavaParser parserFor(Path sourceRoot) {
+        return parsers.get().computeIfAbsent(sourceRoot, r -> {
+            if (!resolveSymbols) {
+                return new JavaParser(syntaxOnlyConfiguration());
+            }
+            TypeSolver typeSolver = typeSolvers.computeIfAbsent(r, JavaAstScanner::createTypeSolver);
+            return new JavaParser(new ParserConfiguration()
+                .setLanguageLevel(LANGUAGE_LEVEL)
+                .setSymbolResolver(new JavaSymbolSolver(typeSolver)));
+        });
+    }
+
+    // Lean configuration for the syntax-only path: no symbol solver, no comment attribution and no
+    // lexical preservation.
+    private static ParserConfiguration syntaxOnlyConfiguration() {
+        return new ParserConfiguration()
+            .setLanguageLevel(LANGUAGE_LEVEL)
+            .setAttributeComments(false)
+            .setLexicalPreservationEnabled(false);
+    }
+
+    private static TypeSolver createTypeSolver(Path sourceRoot) {
+        CombinedTypeSolver typeSolver = new CombinedTypeSolver(new ReflectionTypeSolver(false));
+        if (!sourceRoot.equals(NO_SOURCE_ROOT) && Files.isDirectory(sourceRoot)) {
+            typeSolver.add(new JavaParserTypeSolver(sourceRoot));
+        }
+        return typeSolver;
+    }
+
+    // Source root of a single file: its directory minus the package path, so that all files of a source
+    // tree share one type solver. Falls back to the file's directory if the layout does not match.
+    private static Path sourceRootOf(Path file, String pkg) {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null) {
+            return NO_SOURCE_ROOT;
+        }
+        if (pkg == null || pkg.isEmpty()) {
+            return dir;
+        }
+        String[] segments = pkg.split("\\.");
+        Path current = dir;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (current == null || current.getFileName() == null || !current.getFileName().toString().equals(segments[i])) {
+                return dir;
+            }
+            current = current.getParent();
+        }
+        return current == null ? dir : current;
+    }
+
+    // One pass over the compilation unit: enclosing type names live on a stack and every statement of
+    // interest is reported against the innermost method, so each node is visited exactly once. Each method
+    // opens with a "method" event at its declaration line.
+    private static final class EventCollector extends VoidVisitorAdapter<Void> {
+        private final String pkg;
+        private final SourceText source;
+        private final List<ScanEvent> out;
+        private final ArrayDeque<String> types = new ArrayDeque<>();
+        private String fqcn;
+        private String methodName;
+        private String signature;
+
+        EventCollector(String pkg, SourceText source, List<ScanEvent> out) {
+            this.pkg = pkg;
+            this.source = source;
+            this.out = out;
+        }
+
+        @Override
+        public void visit(ClassOrInterfaceDeclaration n, Void arg) {
+            types.addLast(n.getNameAsString());
+            super.visit(n, arg);
+            types.removeLast();
+        }
+
+        @Override
+        public void visit(EnumDeclaration n, Void arg) {
+            types.addLast(n.getNameAsString());
+            super.visit(n, arg);
+            types.removeLast();
+        }
+
+        @Override
+        public void visit(RecordDeclaration n, Void arg) {
+            types.addLast(n.getNameAsString());
+            super.visit(n, arg);
+            types.removeLast();
+        }
+
+        @Override
+        public void visit(MethodDeclaration n, Void arg) {
+            String outerFqcn = fqcn;
+            String outerName = methodName;
+            String outerSignature = signature;
+            if (types.isEmpty()) {
+                fqcn = null;
+            } else {
+                String typeName = String.join("$", types);
+                fqcn = pkg.isEmpty() ? typeName : pkg + "." + typeName;
+            }
+            methodName = n.getNameAsString();
+            signature = n.getSignature().asString();
+            // Every method with a body is reported, also without branches, so it still gets entry/exit rules.
+            if (fqcn != null && n.getBody().isPresent()) {
+                emit("method", lineOf(n.getName()), null);
+            }
+            super.visit(n, arg);
+            fqcn = outerFqcn;
+            methodName = outerName;
+            signature = outerSignature;
+        }
+
+        // Constructors and initializers are not traced; keep their bodies from being attributed to an
+        // enclosing method when they belong to a local or anonymous class.
+        @Override
+        public void visit(ConstructorDeclaration n, Void arg) {
+            String outerFqcn = fqcn;
+            fqcn = null;
+            super.visit(n, arg);
+            fqcn = outerFqcn;
+        }
+
+        @Override
+        public void visit(InitializerDeclaration n, Void arg) {
+            String outerFqcn = fqcn;
+            fqcn = null;
+            super.visit(n, arg);
+            fqcn = outerFqcn;
+        }
+
+        @Override
+        public void visit(IfStmt n, Void arg) {
+            if (fqcn != null) {
+                // An else-if is an IfStmt of its own and is reported when the visitor reaches it.
+                var cond = n.getCondition();
+                int line = lineOf(cond);
+                String text = source.textOf(cond);
+                emit("if-true", line, text);
+                // Emit false-branch only if there is an else branch; it keeps the condition text as is.
+                if (n.getElseStmt().isPresent()) {
+                    emit("if-false", line, text);
                 }
+            }
+            super.visit(n, arg);
+        }
+
+        @Override
+        public void visit(SwitchStmt n, Void arg) {
+            if (fqcn != null) {
+                emit("switch", lineOf(n.getSelector()), source.textOf(n.getSelector()));
+            }
+            super.visit(n, arg);
+        }
 
-                // Walk an else-if chain iteratively (no recursion!)
-                var elseStmt = cur.getElseStmt().orElse(null);
-                if (elseStmt instanceof IfStmt ei) {
-                    cur = ei;      // continue with the next else-if
+        @Override
+        public void visit(SwitchEntry n, Void arg) {
+            if (fqcn != null) {
+                String label;
+                if (n.getLabels().isEmpty()) {
+                    label = "default";
                 } else {
-                    cur = null;    // end of chain
+                    StringBuilder sb = new StringBuilder("case ");
+                    for (int i = 0; i < n.getLabels().size(); i++) {
+                        if (i > 0) sb.append(" | ");
+                        sb.append(source.textOf(n.getLabels().get(i)).trim());
+                    }
+                    label = sb.toString();
                 }
+                emit("switch-case", lineOf(n), label);
             }
-        });
+            super.visit(n, arg);
+        }
 
-        declaration.findAll(SwitchStmt.class).forEach(sw -> {
-            int line = sw.getSelector().getBegin().map(p -> p.line).orElse(-1);
-            String selector = sw.getSelector().toString();
-            out.add(new ScanEvent("java", fqcn, methodName, signature, "switch", line, selector));
-        });
+        @Override
+        public void visit(ReturnStmt n, Void arg) {
+            if (fqcn != null) {
+                emit("return", lineOf(n), null);
+            }
+            super.visit(n, arg);
+        }
 
-        declaration.findAll(SwitchEntry.class).forEach(entry -> {
-            int line = entry.getBegin().map(p -> p.line).orElse(-1);
-            String label = entry.getLabels().isEmpty()
-                ? "default"
-                : "case " + entry.getLabels().stream()
-                        .map(Node::toString)
-                        .map(String::trim)
-                        .collect(Collectors.joining(" | "));
-            out.add(new ScanEvent("java", fqcn, methodName, signature, "switch-case", line, label));
-        });
+        @Override
+        public void visit(ThrowStmt n, Void arg) {
+            if (fqcn != null) {
+                emit("throw", lineOf(n), source.textOf(n.getExpression()));
+            }
+            super.visit(n, arg);
+        }
 
-        declaration.findAll(ReturnStmt.class).forEach(stmt -> {
-            int line = stmt.getBegin().map(p -> p.line).orElse(-1);
-            out.add(new ScanEvent("java", fqcn, methodName, signature, "return", line, null));
-        });
+        private void emit(String kind, int line, String text) {
+            out.add(new ScanEvent("java", fqcn, methodName, signature, kind, line, text));
+        }
 
-        declaration.findAll(ThrowStmt.class).forEach(stmt -> {
-            int line = stmt.getBegin().map(p -> p.line).orElse(-1);
-            out.add(new ScanEvent("java", fqcn, methodName, signature, "throw", line, stmt.getExpression().toString()));
-        });
+        private static int lineOf(Node node) {
+            return node.getBegin().map(p -> p.line).orElse(-1);
+        }
     }
 
-    private boolean include(String pkg, List<String> includes) {
-        return includes == null || includes.isEmpty() || includes.stream().anyMatch(pkg::startsWith);
-    }
+    /**
+     * Source text with a line index, so a node's text can be cut from its range instead of pretty-printed.
+     * Positions are 1-based with the end inclusive; columns count chars, which holds for JavaParser's
+     * default tab size of 1. Text spanning lines or containing comments falls back to {@link Node#toString()},
+     * which normalises both away, so a condition always fits on one rule line.
+     */
+    static final class SourceText {
+        private final String text;
+        private final int[] lineStarts;
 
-    private boolean exclude(String pkg, List<String> excludes) {
-        return excludes != null && excludes.stream().anyMatch(pkg::startsWith);
-    }
+        SourceText(String text) {
+            this.text = text;
+            int lines = 1;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || (c == '\r' && (i + 1 >= text.length() || text.charAt(i + 1) != '\n'))) {
+                    lines++;
+                }
+            }
+            int[] starts = new int[lines];
+            int line = 1;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || (c == '\r' && (i + 1 >= text.length() || text.charAt(i + 1) != '\n'))) {
+                    starts[line++] = i + 1;
+                }
+            }
+            this.lineStarts = starts;
+        }
 
-    private String resolveEnclosingType(MethodDeclaration declaration) {
-        var parts = new java.util.ArrayList<String>();
-        Node current = declaration.getParentNode().orElse(null);
-        while (current != null) {
-            switch (current) {
-                case ClassOrInterfaceDeclaration classDecl -> parts.addFirst(classDecl.getNameAsString());
-                case EnumDeclaration enumDecl -> parts.addFirst(enumDecl.getNameAsString());
-                case RecordDeclaration recordDecl -> parts.addFirst(recordDecl.getNameAsString());
-                default -> {
+        String textOf(Node node) {
+            Range range = node.getRange().orElse(null);
+            if (range == null) {
+                return node.toString();
+            }
+            int begin = offsetOf(range.begin);
+            int end = offsetOf(range.end) + 1;
+            if (begin < 0 || end <= begin || end > text.length()) {
+                return node.toString();
+            }
+            for (int i = begin; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || c == '\r' || (c == '/' && i + 1 < end && (text.charAt(i + 1) == '/' || text.charAt(i + 1) == '*'))) {
+                    return node.toString();
                 }
             }
-            current = current.getParentNode().orElse(null);
+            return text.substring(begin, end);
+        }
+
+        private int offsetOf(Position position) {
+            if (position.line < 1 || position.line > lineStarts.length || position.column < 1) {
+                return -1;
+            }
+            return lineStarts[position.line - 1] + position.column - 1;
         }
-        return String.join("$", parts);
     }
 }
@@ -1,5 +1,7 @@
 package de.burger.forensics.plugin.scan.kotlin;
 
+import de.burger.forensics.plugin.scan.PackagePrefixFilter;
+import de.burger.forensics.plugin.scan.PackageSniffer;
 import de.burger.forensics.plugin.scan.ScanEvent;
 import de.burger.forensics.plugin.scan.SourceScanner;
 
@@ -8,32 +10,19 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 // English comments only in code.
 // Lightweight Kotlin source scanner implemented in Java without Kotlin PSI.
-// It approximates detection of control-flow and simple write events using regexes
-// and a basic brace-based scope tracker. Good enough for generating scan events
-// similar to the previous Kotlin implementation without adding Kotlin dependencies.
+// Sources are tokenized once by KotlinLexer, so comments and string literals never produce events,
+// and a single pass over the tokens tracks type and function scopes by their braces to emit
+// control-flow and simple write events similar to the previous Kotlin implementation.
 public final class KotlinAstScanner implements SourceScanner {
 
-    private static final Pattern PKG_PATTERN = Pattern.compile("^\\s*package\\s+([a-zA-Z0-9_.]+)");
-    private static final Pattern CLASS_PATTERN = Pattern.compile("^\\s*(?:data\\s+)?(?:sealed\\s+)?(?:open\\s+)?(?:internal\\s+|public\\s+|private\\s+|protected\\s+)?(?:class|object)\\s+([A-Za-z_][A-Za-z0-9_]*)");
-    private static final Pattern FUN_PATTERN = Pattern.compile("^\\s*(?:suspend\\s+)?(?:inline\\s+)?(?:operator\\s+)?(?:tailrec\\s+)?(?:infix\\s+)?(?:internal\\s+|public\\s+|private\\s+|protected\\s+)?fun\\s+([A-Za-z_][A-Za-z0-9_]*?)\\s*\\((.*?)\\)");
-    private static final Pattern IF_START_PATTERN = Pattern.compile("\\bif\\s*\\(");
-    private static final Pattern WHEN_START_PATTERN = Pattern.compile("\\bwhen\\s*\\(");
-    private static final Pattern WHEN_SUBJECTLESS_PATTERN = Pattern.compile("\\bwhen\\s*\\{");
-    private static final Pattern WHEN_ENTRY_PATTERN = Pattern.compile("^\\s*(?:else|[^\\r\\n]+?)\\s*->");
-    private static final Pattern RETURN_PATTERN = Pattern.compile("(^|\\W)return(\\W|$)");
-    private static final Pattern THROW_PATTERN = Pattern.compile("\\bthrow\\s+(.+)");
-    private static final Pattern WRITE_PATTERN = Pattern.compile("(?<![<>!=])\\b([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*(?![=])");
-    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
-
     @Override
     public List<ScanEvent> scan(Path root, List<String> includePkgs, List<String> excludePkgs) {
         var out = new ArrayList<ScanEvent>();
         if (root == null) return out;
+        PackagePrefixFilter filter = PackagePrefixFilter.of(includePkgs, excludePkgs);
         // Walk filesystem with bounded depth and skip directory symlinks to avoid pathological recursion.
         try {
             Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), 64, new SimpleFileVisitor<>() {
@@ -47,7 +36,7 @@ public final class KotlinAstScanner implements SourceScanner {
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
                     String name = file.getFileName().toString();
                     if (name.endsWith(".kt")) {
-                        scanFile(file, includePkgs, excludePkgs, out);
+                        scanFile(file, filter, out);
                     }
                     return FileVisitResult.CONTINUE;
                 }
@@ -58,186 +47,446 @@ public final class KotlinAstScanner implements SourceScanner {
         return out;
     }
 
-    private void scanFile(Path path, List<String> includePkgs, List<String> excludePkgs, List<ScanEvent> out) {
-        List<String> lines;
+    private void scanFile(Path path, PackagePrefixFilter filter, List<ScanEvent> out) {
+        // Reject files outside the packages from their header, before reading them in full.
+        String sniffed = PackageSniffer.sniff(path);
+        if (sniffed != null && !filter.accepts(sniffed)) {
+            return;
+        }
+        String text;
         try {
-            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            text = Files.readString(path, StandardCharsets.UTF_8);
         } catch (IOException e) {
             return;
         }
-        String pkg = "";
-        for (String line : lines) {
-            Matcher m = PKG_PATTERN.matcher(line);
-            if (m.find()) {
-                pkg = m.group(1);
-                break;
+        KotlinLexer.Tokens tokens = KotlinLexer.tokenize(text);
+        String pkg = packageOf(tokens);
+        if (!filter.accepts(pkg)) {
+            return;
+        }
+        String fileTop = stripExtension(path.getFileName().toString()) + "Kt";
+        new FileScan(tokens, pkg, fileTop, out).run();
+    }
+
+    // 'package' is a hard keyword, so its first occurrence is the package declaration.
+    private static String packageOf(KotlinLexer.Tokens tokens) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!tokens.isIdent(i, "package")) continue;
+            StringBuilder name = new StringBuilder();
+            int j = i + 1;
+            while (j < tokens.size() && tokens.kind(j) == KotlinLexer.IDENT) {
+                name.append(tokens.name(j));
+                if (!tokens.is(j + 1, ".")) break;
+                name.append('.');
+                j += 2;
             }
+            return name.toString();
         }
-        if (!include(pkg, includePkgs) || exclude(pkg, excludePkgs)) {
-            return;
+        return "";
+    }
+
+    /** Scope tracking and event emission for one file, in a single pass over its tokens. */
+    private static final class FileScan {
+        private static final int OTHER = 0;
+        private static final int TYPE_BODY = 1;
+        private static final int FUN_BODY = 2;
+        private static final int WHEN_BODY = 3;
+
+        // Tokens that continue an expression on the next line when they start it ...
+        private static final Set<String> LEADING_CONTINUATIONS = Set.of(".", "?.", "?:", "&&", "||", "as", "else");
+        // ... or when they end the previous line.
+        private static final Set<String> TRAILING_CONTINUATIONS = Set.of(
+            "=", ".", "?.", "?:", "&&", "||", "+", "-", "*", "/", "%", "==", "!=", "===", "!==",
+            "<", ">", "<=", ">=", "..", "..<", "->", ",", "in", "is", "as");
+        private static final Set<String> HEADER_CONTINUATIONS = Set.of("{", "=", ":", "where", ".", ",", "?", "<", ">", "->");
+        private static final Set<String> DECLARATIONS = Set.of("class", "interface", "object", "fun", "val", "var", "typealias", "init");
+
+        private final KotlinLexer.Tokens t;
+        private final int n;
+        private final String pkg;
+        private final String fileTop;
+        private final List<ScanEvent> out;
+
+        // Open brackets with the role of each '{'.
+        private char[] openers = new char[32];
+        private int[] roles = new int[32];
+        private int depth;
+
+        private final ArrayDeque<String> types = new ArrayDeque<>();
+        private String pendingType;
+        private int pendingTypeDepth = -1;
+
+        // A function whose parameter list was read but whose body has not started yet.
+        private String headerName;
+        private String headerSignature;
+        private int headerDepth = -1;
+
+        private String fqcn;
+        private String function;
+        private String signature;
+        private int functionDepth = -1;
+        private boolean expressionBody;
+
+        private int whenBodyAt = -1;
+        private String declaredName;
+        private int declaredDepth = -1;
+        private int lastReturnLine = -1;
+
+        FileScan(KotlinLexer.Tokens tokens, String pkg, String fileTop, List<ScanEvent> out) {
+            this.t = tokens;
+            this.n = tokens.size();
+            this.pkg = pkg;
+            this.fileTop = fileTop;
+            this.out = out;
         }
 
-        String fileTop = stripExtension(path.getFileName().toString()) + "Kt";
-        Deque<String> classStack = new ArrayDeque<>();
-        Deque<Integer> braceStack = new ArrayDeque<>();
-        String currentFun = null;
-        String currentSig = null;
-        int funBraceLevel = -1;
-        int brace = 0;
-
-        for (int i = 0; i < lines.size(); i++) {
-            String raw = lines.get(i);
-            String line = stripLineComments(raw);
-
-            // Track braces for scope
-            brace += countChar(line, '{');
-            brace -= countChar(line, '}');
-
-            // Enter class/object
-            Matcher mc = CLASS_PATTERN.matcher(line);
-            if (mc.find()) {
-                classStack.push(mc.group(1));
-                braceStack.push(brace);
+        void run() {
+            for (int i = 0; i < n; i++) {
+                if (t.newlineBefore(i)) {
+                    if (function != null && expressionBody && depth == functionDepth && !continuesExpression(i)) {
+                        endFunction();
+                    }
+                    if (headerName != null && depth == headerDepth && !HEADER_CONTINUATIONS.contains(t.text(i))
+                        && (i == 0 || !HEADER_CONTINUATIONS.contains(t.text(i - 1)))) {
+                        headerName = null;
+                    }
+                    if (declaredName != null && depth <= declaredDepth) {
+                        declaredName = null;
+                    }
+                }
+                if (function != null && depth > 0 && roles[depth - 1] == WHEN_BODY && startsWhenEntry(i)) {
+                    whenBranch(i);
+                }
+                if (t.kind(i) == KotlinLexer.OPERATOR) {
+                    operator(i);
+                } else if (t.kind(i) == KotlinLexer.IDENT) {
+                    i = identifier(i);
+                }
+            }
+        }
+
+        private void operator(int i) {
+            char c = t.firstChar(i);
+            if (t.is(i, "{")) {
+                int role = OTHER;
+                if (pendingType != null && depth == pendingTypeDepth) {
+                    types.addLast(pendingType);
+                    pendingType = null;
+                    role = TYPE_BODY;
+                } else if (headerName != null && depth == headerDepth) {
+                    startFunction(false);
+                    role = FUN_BODY;
+                } else if (i == whenBodyAt) {
+                    role = WHEN_BODY;
+                }
+                push('{', role);
+                if (role == FUN_BODY) {
+                    functionDepth = depth;
+                }
+            } else if (t.is(i, "(") || t.is(i, "[")) {
+                push(c, OTHER);
+            } else if (t.is(i, "}") || t.is(i, ")") || t.is(i, "]")) {
+                if (depth == 0) return;
+                int role = roles[--depth];
+                if (role == TYPE_BODY && !types.isEmpty()) {
+                    types.removeLast();
+                } else if (role == FUN_BODY) {
+                    endFunction();
+                }
+                if (function != null && expressionBody && depth < functionDepth) endFunction();
+                if (pendingType != null && depth < pendingTypeDepth) pendingType = null;
+                if (headerName != null && depth < headerDepth) headerName = null;
+            } else if (t.is(i, "=")) {
+                if (headerName != null && depth == headerDepth) {
+                    startFunction(true);
+                    functionDepth = depth;
+                } else if (function != null && depth > 0 && openers[depth - 1] == '{') {
+                    if (declaredName != null && depth == declaredDepth) {
+                        emit("write", t.line(i), declaredName);
+                    } else if (i > 0 && t.kind(i - 1) == KotlinLexer.IDENT) {
+                        emit("write", t.line(i), t.name(i - 1));
+                    }
+                    declaredName = null;
+                }
+            } else if (t.is(i, ";")) {
+                if (pendingType != null && depth == pendingTypeDepth) pendingType = null;
+                if (headerName != null && depth == headerDepth) headerName = null;
+                if (function != null && expressionBody && depth == functionDepth) endFunction();
+            }
+        }
+
+        // Returns the index of the last token consumed.
+        private int identifier(int i) {
+            if (pendingType != null && depth == pendingTypeDepth && DECLARATIONS.contains(t.text(i))) {
+                pendingType = null;
+            }
+            switch (t.text(i)) {
+                case "class", "interface" -> {
+                    if (function == null && !t.is(i - 1, "::") && i + 1 < n && t.kind(i + 1) == KotlinLexer.IDENT) {
+                        pendingType(t.name(i + 1));
+                    }
+                }
+                case "object" -> {
+                    if (function == null) {
+                        if (i + 1 < n && t.kind(i + 1) == KotlinLexer.IDENT) {
+                            pendingType(t.name(i + 1));
+                        } else if (t.isIdent(i - 1, "companion")) {
+                            pendingType("Companion");
+                        }
+                    }
+                }
+                case "fun" -> {
+                    if (function == null) {
+                        return functionHeader(i);
+                    }
+                }
+                case "val", "var" -> {
+                    if (function != null && i + 1 < n && t.kind(i + 1) == KotlinLexer.IDENT) {
+                        declaredName = t.name(i + 1);
+                        declaredDepth = depth;
+                    }
+                }
+                case "if" -> {
+                    int close = function != null && t.is(i + 1, "(") ? matching(i + 1) : -1;
+                    if (close > 0) {
+                        String condition = text(i + 2, close);
+                        if (!condition.isEmpty()) {
+                            // Approximate: assume a potential else branch.
+                            emit("if-true", t.line(i), condition);
+                            emit("if-false", t.line(i), condition);
+                        }
+                    }
+                }
+                case "when" -> {
+                    if (function != null) {
+                        if (t.is(i + 1, "(")) {
+                            int close = matching(i + 1);
+                            if (close > 0) {
+                                String subject = text(i + 2, close);
+                                if (!subject.isEmpty()) {
+                                    emit("switch", t.line(i), subject);
+                                }
+                                whenBodyAt = t.is(close + 1, "{") ? close + 1 : -1;
+                            }
+                        } else if (t.is(i + 1, "{")) {
+                            // subject-less when { ... }
+                            emit("switch", t.line(i), null);
+                            whenBodyAt = i + 1;
+                        }
+                    }
+                }
+                case "return" -> {
+                    if (function != null && t.line(i) != lastReturnLine) {
+                        lastReturnLine = t.line(i);
+                        emit("return", t.line(i), null);
+                    }
+                }
+                case "throw" -> {
+                    if (function != null) {
+                        String thrown = text(i + 1, endOfThrow(i + 1));
+                        if (!thrown.isEmpty()) {
+                            emit("throw", t.line(i), thrown);
+                        }
+                    }
+                }
+                default -> {
+                }
             }
-            // Pop class/object when brace drops below stored level
-            while (!braceStack.isEmpty() && brace < braceStack.peek()) {
-                braceStack.pop();
-                classStack.pop();
+            return i;
+        }
+
+        private void pendingType(String name) {
+            pendingType = name;
+            pendingTypeDepth = depth;
+        }
+
+        // Reads 'fun [<T>] [Receiver.]name(params)'. Returns the index of the closing parenthesis, or i
+        // if this is not a named function declaration (e.g. 'fun interface' or an anonymous function).
+        private int functionHeader(int i) {
+            int j = i + 1;
+            if (t.isIdent(j, "interface")) return i;
+            int name = -1;
+            while (j < n && !t.is(j, "(")) {
+                if (t.is(j, "<")) {
+                    j = skipAngles(j);
+                    continue;
+                }
+                if (t.kind(j) == KotlinLexer.IDENT) {
+                    name = j;
+                } else if (!t.is(j, ".") && !t.is(j, "?")) {
+                    return i;
+                }
+                j++;
             }
+            if (name < 0 || j >= n) return i;
+            int close = matching(j);
+            if (close < 0) return i;
+            headerName = t.name(name);
+            headerSignature = buildSignature(headerName, j + 1, close);
+            headerDepth = depth;
+            return close;
+        }
 
-            // Function start
-            if (currentFun == null) {
-                Matcher mf = FUN_PATTERN.matcher(line);
-                if (mf.find()) {
-                    currentFun = mf.group(1);
-                    currentSig = buildSignature(mf.group(1), mf.group(2));
-                    funBraceLevel = brace; // function body usually starts after this when '{' increases
+        // Parameter types only: 'a: Int, b: Map<String, Int> = emptyMap()' gives name(Int,Map<String,Int>).
+        private String buildSignature(String name, int from, int to) {
+            StringBuilder sb = new StringBuilder(name).append('(');
+            int params = 0;
+            int nesting = 0;
+            boolean typed = false;
+            boolean inDefault = false;
+            boolean empty = true;
+            for (int j = from; j <= to; j++) {
+                if (j == to || (nesting == 0 && t.is(j, ","))) {
+                    if (!empty && !typed) {
+                        if (params++ > 0) sb.append(',');
+                        sb.append("Any"); // fallback when no explicit type
+                    }
+                    typed = false;
+                    inDefault = false;
+                    empty = true;
+                    continue;
+                }
+                empty = false;
+                if (t.is(j, "(") || t.is(j, "[") || t.is(j, "{") || (!inDefault && t.is(j, "<"))) {
+                    nesting++;
+                } else if (t.is(j, ")") || t.is(j, "]") || t.is(j, "}") || (!inDefault && t.is(j, ">"))) {
+                    nesting--;
+                }
+                if (nesting == 0 && !typed && t.is(j, ":")) {
+                    typed = true;
+                    if (params++ > 0) sb.append(',');
+                } else if (nesting == 0 && t.is(j, "=")) {
+                    inDefault = true;
+                } else if (typed && !inDefault) {
+                    t.appendTo(sb, j);
                 }
             }
+            return sb.append(')').toString();
+        }
 
-            String fqcn = buildFqcn(pkg, classStack, fileTop);
-
-            if (currentFun != null) {
-                // Within a function body: collect events
-                collectLineEvents(lines, i, line, fqcn, currentFun, currentSig, out);
-                // Detect function end strictly when brace drops below the starting level.
-                // Using equality here can prematurely end the function when closing inner blocks
-                // that return to the function's starting depth.
-                if (brace < funBraceLevel) {
-                    currentFun = null;
-                    currentSig = null;
-                    funBraceLevel = -1;
+        private int skipAngles(int open) {
+            int nesting = 0;
+            for (int j = open; j < n; j++) {
+                if (t.is(j, "<")) {
+                    nesting++;
+                } else if (t.is(j, ">") && --nesting == 0) {
+                    return j + 1;
+                } else if (t.is(j, "{") || t.is(j, "=") || t.is(j, ";")) {
+                    return j;
                 }
             }
+            return n;
         }
-    }
 
-    private void collectLineEvents(List<String> lines, int index, String line, String fqcn, String methodName, String signature, List<ScanEvent> out) {
-        int lineNo = index + 1;
-
-        // if (...) -> if-true and if-false (approximate: assume potential else)
-        Matcher mi = IF_START_PATTERN.matcher(line);
-        while (mi.find()) {
-            int parenStart = mi.end() - 1;
-            String condition = captureParenthesized(lines, index, line, parenStart);
-            if (condition != null && !condition.isBlank()) {
-                out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "if-true", lineNo, condition));
-                out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "if-false", lineNo, condition));
+        // Index of the bracket closing the one at 'open', or -1.
+        private int matching(int open) {
+            int nesting = 0;
+            for (int j = open; j < n; j++) {
+                if (isOpener(j)) {
+                    nesting++;
+                } else if (isCloser(j) && --nesting == 0) {
+                    return j;
+                }
             }
+            return -1;
         }
-        // when(selector)
-        Matcher mw = WHEN_START_PATTERN.matcher(line);
-        while (mw.find()) {
-            int parenStart = mw.end() - 1;
-            String subject = captureParenthesized(lines, index, line, parenStart);
-            if (subject != null && !subject.isBlank()) {
-                out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "switch", lineNo, subject));
+
+        // The thrown expression ends with its line, a ';', an 'else' or the enclosing bracket.
+        private int endOfThrow(int from) {
+            int nesting = 0;
+            for (int j = from; j < n; j++) {
+                if (j > from && nesting == 0 && t.newlineBefore(j) && !continuesExpression(j)) return j;
+                if (isOpener(j)) {
+                    nesting++;
+                } else if (isCloser(j)) {
+                    if (nesting == 0) return j;
+                    nesting--;
+                } else if (nesting == 0 && (t.is(j, ";") || t.isIdent(j, "else"))) {
+                    return j;
+                }
             }
+            return n;
         }
-        // subject-less when { ... }
-        if (WHEN_SUBJECTLESS_PATTERN.matcher(line).find()) {
-            out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "switch", lineNo, null));
+
+        private boolean startsWhenEntry(int i) {
+            return !t.is(i, "}") && (t.newlineBefore(i) || t.is(i - 1, "{") || t.is(i - 1, ";"));
         }
-        // when branch entries (simple heuristic: lines like `x ->` or `else ->`)
-        Matcher mEntry = WHEN_ENTRY_PATTERN.matcher(line);
-        if (mEntry.find()) {
-            String label = line.trim();
-            int arrow = label.indexOf("->");
-            if (arrow > 0) {
-                label = label.substring(0, arrow).trim();
+
+        // A when entry is 'conditions -> body'; the conditions must end on this line (or after a ',').
+        private void whenBranch(int start) {
+            int nesting = 0;
+            for (int j = start; j < n; j++) {
+                if (j > start && nesting == 0 && t.newlineBefore(j) && !t.is(j - 1, ",")) return;
+                if (isOpener(j)) {
+                    nesting++;
+                } else if (isCloser(j)) {
+                    if (nesting == 0) return;
+                    nesting--;
+                } else if (nesting == 0 && t.is(j, "->")) {
+                    emit("when-branch", t.line(start), text(start, j));
+                    return;
+                }
             }
-            out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "when-branch", lineNo, label));
         }
-        // return
-        if (RETURN_PATTERN.matcher(line).find()) {
-            out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "return", lineNo, null));
+
+        private boolean continuesExpression(int i) {
+            return LEADING_CONTINUATIONS.contains(t.text(i)) || (i > 0 && TRAILING_CONTINUATIONS.contains(t.text(i - 1)));
         }
-        // throw
-        Matcher mt = THROW_PATTERN.matcher(line);
-        if (mt.find()) {
-            out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "throw", lineNo, mt.group(1).trim()))
-            ;
+
+        private boolean isOpener(int j) {
+            return t.is(j, "(") || t.is(j, "[") || t.is(j, "{");
         }
-        // simple assignment writes
-        Matcher mwrt = WRITE_PATTERN.matcher(line);
-        while (mwrt.find()) {
-            String name = mwrt.group(1);
-            out.add(new ScanEvent("kotlin", fqcn, methodName, signature, "write", lineNo, name));
+
+        private boolean isCloser(int j) {
+            return t.is(j, ")") || t.is(j, "]") || t.is(j, "}");
         }
-    }
 
-    private String captureParenthesized(List<String> lines, int startLine, String currentLine, int openingIndex) {
-        int depth = 1;
-        StringBuilder buffer = new StringBuilder();
-        int lineIndex = startLine;
-        String line = currentLine;
-        int charIndex = openingIndex + 1;
-        boolean needSpace = false;
-        while (true) {
-            while (charIndex < line.length()) {
-                char ch = line.charAt(charIndex);
-                if (Character.isWhitespace(ch)) {
-                    if (!buffer.isEmpty() && !Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
-                        needSpace = true;
-                    }
-                    charIndex++;
-                    continue;
-                }
-                if (needSpace && requiresSpaceBefore(buffer, ch)) {
+        // Token texts joined by single spaces where the source separates them, minus comments.
+        private String text(int from, int to) {
+            StringBuilder buffer = new StringBuilder();
+            for (int j = from; j < to; j++) {
+                if (j > from && t.spaceBefore(j) && requiresSpaceBefore(buffer, t.firstChar(j))) {
                     buffer.append(' ');
                 }
-                needSpace = false;
-                if (ch == '(') {
-                    depth++;
-                    buffer.append(ch);
-                } else if (ch == ')') {
-                    depth--;
-                    if (depth == 0) {
-                        return normalizeWhitespace(buffer.toString());
-                    }
-                    buffer.append(ch);
-                } else {
-                    buffer.append(ch);
-                }
-                charIndex++;
+                t.appendTo(buffer, j);
             }
-            lineIndex++;
-            if (lineIndex >= lines.size()) {
-                return null;
+            return buffer.toString().trim();
+        }
+
+        private void push(char opener, int role) {
+            if (depth == openers.length) {
+                openers = Arrays.copyOf(openers, depth * 2);
+                roles = Arrays.copyOf(roles, depth * 2);
             }
-            line = stripLineComments(lines.get(lineIndex));
-            charIndex = 0;
+            openers[depth] = opener;
+            roles[depth] = role;
+            depth++;
+        }
+
+        private void startFunction(boolean expression) {
+            function = headerName;
+            signature = headerSignature;
+            fqcn = buildFqcn(pkg, types, fileTop);
+            expressionBody = expression;
+            headerName = null;
+            headerSignature = null;
+        }
+
+        private void endFunction() {
+            function = null;
+            signature = null;
+            functionDepth = -1;
+            expressionBody = false;
+            declaredName = null;
+            lastReturnLine = -1;
         }
-    }
 
-    private String normalizeWhitespace(String input) {
-        if (input == null) {
-            return null;
+        private void emit(String kind, int line, String text) {
+            out.add(new ScanEvent("kotlin", fqcn, function, signature, kind, line, text));
         }
-        return WHITESPACE.matcher(input).replaceAll(" ").trim();
     }
 
-    private boolean requiresSpaceBefore(StringBuilder buffer, char ch) {
+    private static boolean requiresSpaceBefore(StringBuilder buffer, char ch) {
         if (buffer.isEmpty()) {
             return false;
         }
@@ -251,60 +500,13 @@ public final class KotlinAstScanner implements SourceScanner {
         return !(ch == '.' || ch == ',' || ch == ')' || ch == ']' || ch == ':' || ch == ';');
     }
 
-    private static String buildFqcn(String pkg, Deque<String> classStack, String fileTop) {
-        String typeName;
-        if (classStack.isEmpty()) {
-            typeName = fileTop;
-        } else {
-            List<String> parts = new ArrayList<>(classStack);
-            Collections.reverse(parts);
-            typeName = String.join("$", parts);
-        }
+    private static String buildFqcn(String pkg, Deque<String> types, String fileTop) {
+        String typeName = types.isEmpty() ? fileTop : String.join("$", types);
         return (pkg == null || pkg.isBlank()) ? typeName : pkg + "." + typeName;
     }
 
-    private static String buildSignature(String name, String paramsRaw) {
-        if (paramsRaw == null) return name + "()";
-        // params like: a: Int, b: String -> we keep only type tokens after ':'
-        String[] parts = paramsRaw.split(",");
-        var types = new ArrayList<String>(parts.length);
-        for (String p : parts) {
-            String t = p.trim();
-            int idx = t.lastIndexOf(':');
-            if (idx >= 0 && idx + 1 < t.length()) {
-                t = t.substring(idx + 1).trim();
-            } else if (!t.isEmpty()) {
-                t = "Any"; // fallback when no explicit type
-            } else {
-                t = "";
-            }
-            if (!t.isEmpty()) types.add(t);
-        }
-        return name + "(" + String.join(",", types) + ")";
-    }
-
-    private static int countChar(String s, char c) {
-        int n = 0;
-        for (int i = 0; i < s.length(); i++) if (s.charAt(i) == c) n++;
-        return n;
-    }
-
     private static String stripExtension(String filename) {
         int dot = filename.lastIndexOf('.');
         return dot < 0 ? filename : filename.substring(0, dot);
     }
-
-    private static String stripLineComments(String line) {
-        // Very naive removal of // comments to avoid false positives
-        int idx = line.indexOf("//");
-        return idx >= 0 ? line.substring(0, idx) : line;
-    }
-
-    private boolean include(String pkg, List<String> includes) {
-        return includes == null || includes.isEmpty() || includes.stream().anyMatch(pkg::startsWith);
-    }
-
-    private boolean exclude(String pkg, List<String> excludes) {
-        return excludes != null && excludes.stream().anyMatch(pkg::startsWith);
-    }
 }
@@ -0,0 +1,375 @@
+package de.burger.forensics.plugin.scan.kotlin;
+
+import java.util.Arrays;
+
+// English comments only in code.
+/**
+ * Single-pass tokenizer for Kotlin sources. Comments and whitespace are dropped, string and character
+ * literals (including raw strings and {@code ${...}} templates) become one token each, so nothing inside
+ * them can be mistaken for code. Tokens are kept in parallel int arrays to avoid an object per token.
+ *
+ * <p>The lexer is lenient: unterminated literals and comments run to the end of the input, and any
+ * character it does not know becomes a one-character operator token.
+ */
+final class KotlinLexer {
+    static final int IDENT = 0;
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int OPERATOR = 3;
+
+    // Template nesting beyond this depth is treated as plain string content.
+    private static final int MAX_TEMPLATE_DEPTH = 32;
+
+    // Longest operators first, so that a prefix never wins over the full operator.
+    private static final String[] OPERATORS = {
+        "===", "!==", "..<",
+        "==", "!=", "<=", ">=", "&&", "||", "->", "::", "?.", "?:", "!!", "..", "+=", "-=", "*=", "/=", "%=", "++", "--"
+    };
+
+    private final String text;
+    private int pos;
+    private int line = 1;
+
+    private int count;
+    private int[] kinds = new int[256];
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int[] lines = new int[256];
+    private boolean[] spaceBefore = new boolean[256];
+    private boolean[] newlineBefore = new boolean[256];
+
+    private KotlinLexer(String text) {
+        this.text = text;
+    }
+
+    static Tokens tokenize(String text) {
+        KotlinLexer lexer = new KotlinLexer(text);
+        lexer.run();
+        return new Tokens(text, lexer.count, lexer.kinds, lexer.starts, lexer.ends, lexer.lines, lexer.spaceBefore, lexer.newlineBefore);
+    }
+
+    private void run() {
+        if (text.startsWith("#!")) {
+            skipLineComment();
+        }
+        boolean space = false;
+        boolean newline = false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                newLine(c);
+                space = true;
+                newline = true;
+            } else if (Character.isWhitespace(c) || c == '\uFEFF') {
+                pos++;
+                space = true;
+            } else if (c == '/' && peek(1) == '/') {
+                skipLineComment();
+                space = true;
+            } else if (c == '/' && peek(1) == '*') {
+                newline |= skipBlockComment();
+                space = true;
+            } else {
+                int tokenLine = line;
+                int start = pos;
+                int kind = lexToken(c);
+                add(kind, start, pos, tokenLine, space, newline);
+                space = false;
+                newline = false;
+            }
+        }
+    }
+
+    private int lexToken(char c) {
+        if (c == '"') {
+            skipString(0);
+            return STRING;
+        }
+        if (c == '\'') {
+            skipCharLiteral();
+            return STRING;
+        }
+        if (c == '`') {
+            int close = text.indexOf('`', pos + 1);
+            int eol = endOfLine(pos + 1);
+            pos = close < 0 || close > eol ? eol : close + 1;
+            return IDENT;
+        }
+        if (Character.isJavaIdentifierStart(c)) {
+            pos++;
+            while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) pos++;
+            return IDENT;
+        }
+        if (Character.isDigit(c) || (c == '.' && Character.isDigit(peek(1)))) {
+            skipNumber();
+            return NUMBER;
+        }
+        for (String op : OPERATORS) {
+            if (text.startsWith(op, pos)) {
+                pos += op.length();
+                return OPERATOR;
+            }
+        }
+        pos++;
+        return OPERATOR;
+    }
+
+    private void skipNumber() {
+        pos++;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                pos++;
+                // Exponent sign, as in 1e-5; hex literals contain no signs.
+                if ((c == 'e' || c == 'E') && (peek(0) == '+' || peek(0) == '-') && !isHexLiteralAt(pos)) pos++;
+            } else if (c == '.' && Character.isDigit(peek(1))) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private boolean isHexLiteralAt(int end) {
+        int start = end;
+        while (start > 0 && (Character.isLetterOrDigit(text.charAt(start - 1)) || text.charAt(start - 1) == '_')) start--;
+        return text.startsWith("0x", start) || text.startsWith("0X", start);
+    }
+
+    // pos is at the opening quote; leaves pos after the closing quote.
+    private void skipString(int depth) {
+        boolean raw = text.startsWith("\"\"\"", pos);
+        pos += raw ? 3 : 1;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (raw && text.startsWith("\"\"\"", pos)) {
+                pos += 3;
+                // Quotes directly before the closing delimiter belong to the content.
+                while (peek(0) == '"') pos++;
+                return;
+            }
+            if (!raw && c == '"') {
+                pos++;
+                return;
+            }
+            if (!raw && (c == '\n' || c == '\r')) {
+                return; // unterminated single-line string
+            }
+            if (!raw && c == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (c == '$' && peek(1) == '{' && depth < MAX_TEMPLATE_DEPTH) {
+                pos += 2;
+                skipTemplate(depth + 1);
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                newLine(c);
+                continue;
+            }
+            pos++;
+        }
+    }
+
+    // Skips the code of a ${...} template up to and including its closing brace.
+    private void skipTemplate(int depth) {
+        int braces = 1;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                newLine(c);
+            } else if (c == '"') {
+                skipString(depth);
+            } else if (c == '\'') {
+                skipCharLiteral();
+            } else if (c == '/' && peek(1) == '/') {
+                skipLineComment();
+            } else if (c == '/' && peek(1) == '*') {
+                skipBlockComment();
+            } else {
+                pos++;
+                if (c == '{') {
+                    braces++;
+                } else if (c == '}' && --braces == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void skipCharLiteral() {
+        int eol = endOfLine(pos + 1);
+        int i = pos + 1;
+        while (i < eol) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '\'') {
+                pos = i + 1;
+                return;
+            } else {
+                i++;
+            }
+        }
+        // Not a character literal after all; keep the quote as a single token.
+        pos++;
+    }
+
+    private void skipLineComment() {
+        pos = endOfLine(pos);
+    }
+
+    // Kotlin block comments nest. Returns whether the comment spans a line break.
+    private boolean skipBlockComment() {
+        boolean newline = false;
+        int depth = 1;
+        pos += 2;
+        while (pos < text.length() && depth > 0) {
+            char c = text.charAt(pos);
+            if (c == '*' && peek(1) == '/') {
+                depth--;
+                pos += 2;
+            } else if (c == '/' && peek(1) == '*') {
+                depth++;
+                pos += 2;
+            } else if (c == '\n' || c == '\r') {
+                newLine(c);
+                newline = true;
+            } else {
+                pos++;
+            }
+        }
+        return newline;
+    }
+
+    // Consumes one line terminator (\n, \r or \r\n) at pos.
+    private void newLine(char c) {
+        pos++;
+        if (c == '\r' && peek(0) == '\n') pos++;
+        line++;
+    }
+
+    private int endOfLine(int from) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') i++;
+        return i;
+    }
+
+    private char peek(int offset) {
+        int i = pos + offset;
+        return i < text.length() ? text.charAt(i) : '\0';
+    }
+
+    private void add(int kind, int start, int end, int tokenLine, boolean space, boolean newline) {
+        if (count == kinds.length) {
+            int size = count * 2;
+            kinds = Arrays.copyOf(kinds, size);
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            lines = Arrays.copyOf(lines, size);
+            spaceBefore = Arrays.copyOf(spaceBefore, size);
+            newlineBefore = Arrays.copyOf(newlineBefore, size);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = end;
+        lines[count] = tokenLine;
+        spaceBefore[count] = space;
+        newlineBefore[count] = newline;
+        count++;
+    }
+
+    /** Token stream of one source. Token texts are views into the source and are only copied on demand. */
+    static final class Tokens {
+        private final String text;
+        private final int count;
+        private final int[] kinds;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] lines;
+        private final boolean[] spaceBefore;
+        private final boolean[] newlineBefore;
+
+        private Tokens(String text, int count, int[] kinds, int[] starts, int[] ends, int[] lines,
+                       boolean[] spaceBefore, boolean[] newlineBefore) {
+            this.text = text;
+            this.count = count;
+            this.kinds = kinds;
+            this.starts = starts;
+            this.ends = ends;
+            this.lines = lines;
+            this.spaceBefore = spaceBefore;
+            this.newlineBefore = newlineBefore;
+        }
+
+        int size() {
+            return count;
+        }
+
+        int kind(int i) {
+            return kinds[i];
+        }
+
+        int line(int i) {
+            return lines[i];
+        }
+
+        /** Whether whitespace or a comment separates token {@code i} from the previous one. */
+        boolean spaceBefore(int i) {
+            return spaceBefore[i];
+        }
+
+        /** Whether a line break separates token {@code i} from the previous one. */
+        boolean newlineBefore(int i) {
+            return newlineBefore[i];
+        }
+
+        char firstChar(int i) {
+            return text.charAt(starts[i]);
+        }
+
+        boolean is(int i, String value) {
+            return i >= 0 && i < count && ends[i] - starts[i] == value.length() && text.startsWith(value, starts[i]);
+        }
+
+        boolean isIdent(int i, String value) {
+            return i >= 0 && i < count && kinds[i] == IDENT && is(i, value);
+        }
+
+        String text(int i) {
+            return text.substring(starts[i], ends[i]);
+        }
+
+        /** Identifier text without the backticks of an escaped name. */
+        String name(int i) {
+            int start = starts[i];
+            int end = ends[i];
+            if (text.charAt(start) == '`' && end - start >= 2 && text.charAt(end - 1) == '`') {
+                return text.substring(start + 1, end - 1);
+            }
+            return text.substring(start, end);
+        }
+
+        /** Appends the raw text of token {@code i}; line breaks inside raw strings become spaces. */
+        void appendTo(StringBuilder sb, int i) {
+            int start = starts[i];
+            int end = ends[i];
+            if (kinds[i] != STRING) {
+                sb.append(text, start, end);
+                return;
+            }
+            boolean lineBreak = false;
+            for (int p = start; p < end; p++) {
+                char c = text.charAt(p);
+                if (c == '\n' || c == '\r') {
+                    if (!lineBreak) sb.append(' ');
+                    lineBreak = true;
+                } else {
+                    sb.append(c);
+                    lineBreak = false;
+                }
+            }
+        }
+    }
+}
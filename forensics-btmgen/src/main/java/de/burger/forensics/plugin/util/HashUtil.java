@@ -8,10 +8,14 @@ public final class HashUtil {
     }
 
     public static int stableShard(String key, int shards) {
+        return stableShard(key == null ? 0 : key.hashCode(), shards);
+    }
+
+    /** Same as {@link #stableShard(String, int)} for a key of which only the hash code is known. */
+    public static int stableShard(int keyHash, int shards) {
         if (shards <= 1) {
             return 0;
         }
-        int safeHash = (key == null ? 0 : key.hashCode()) & 0x7fffffff;
-        return safeHash % shards;
+        return (keyHash & 0x7fffffff) % shards;
     }
 }
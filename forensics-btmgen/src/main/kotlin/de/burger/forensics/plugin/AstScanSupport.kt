@@ -0,0 +1,143 @@
+package de.burger.forensics.plugin
+
+import de.burger.forensics.plugin.engine.BraceIndex
+import de.burger.forensics.plugin.engine.JavaPrefilter
+import de.burger.forensics.plugin.engine.ScanDeadline
+import de.burger.forensics.plugin.io.ScanSkipReport
+import de.burger.forensics.plugin.scan.PackagePrefixFilter
+import de.burger.forensics.plugin.scan.PackageSniffer
+import de.burger.forensics.plugin.scan.ScanCache
+import de.burger.forensics.plugin.scan.ScanEvent
+import de.burger.forensics.plugin.scan.ScannerFacade
+import org.gradle.api.InvalidUserDataException
+import java.io.File
+import java.util.regex.Pattern
+
+// AST scanning shared by GenerateBtmTask and ScanSourcesTask.
+
+private val JAVA_PACKAGE_REGEX = Regex("(?m)^\\s*package\\s+([a-zA-Z0-9_.]+)\\s*;")
+private val JAVA_CLASS_REGEX = Regex(
+    "(?m)^\\s*(?:@[\\w.$]+(?:\\([^)]*\\))?\\s*)*(?:(?:\\b(?:public|protected|private|abstract|final|static|strictfp|sealed)\\b|non-sealed)\\s+)*class\\s+([A-Za-z0-9_]+)"
+)
+private val JAVA_METHOD_PATTERN: Pattern = Pattern.compile(
+    "(?m)^\\s*(?:@[\\w.$]+(?:\\([^)]*\\))?\\s*)*(?:\\b(?:public|protected|private|abstract|final|static|strictfp|synchronized|native|default)\\b\\s+)*(?:<[^>]+>\\s*)?[\\w$<>\\[\\],.?\\s]+\\s+([A-Za-z0-9_]+)\\s*\\([^)]*\\)\\s*\\{"
+)
+
+internal const val KOTLIN_SCANNER_LEXER = "lexer"
+internal const val KOTLIN_SCANNER_PSI = "psi"
+
+/**
+ * Scanner facade for the `kotlinScanner` setting of the tasks. With [KOTLIN_SCANNER_PSI] Kotlin files are
+ * parsed with environments from [psiLeases], which is only called once a Kotlin file is scanned.
+ */
+internal fun scannerFacade(
+    cache: ScanCache?,
+    kotlinScanner: String,
+    psiLeases: () -> KotlinPsiEnvironmentPool.Lease
+): ScannerFacade = when (kotlinScanner.trim().lowercase()) {
+    KOTLIN_SCANNER_LEXER -> ScannerFacade(cache)
+    KOTLIN_SCANNER_PSI -> ScannerFacade(cache, KotlinPsiScanner(psiLeases), KOTLIN_SCANNER_PSI)
+    else -> throw InvalidUserDataException(
+        "Unsupported kotlinScanner '$kotlinScanner', expected one of: $KOTLIN_SCANNER_LEXER, $KOTLIN_SCANNER_PSI"
+    )
+}
+
+/**
+ * Result of scanning one source file: the AST events plus, for Java files the AST pass could not parse,
+ * the methods the regex fallback has to cover and the source text it needs (null when nothing is missing).
+ */
+internal class AstFileScan(
+    val events: List<ScanEvent>,
+    val missingJavaMethods: Set<String>,
+    val fallbackSource: String?
+) {
+    companion object {
+        val EMPTY = AstFileScan(emptyList(), emptySet(), null)
+    }
+}
+
+internal const val PASS_JAVA_METHOD_INDEX = "java-method-index"
+internal const val PASS_JAVA_REGEX = "java-regex"
+
+/**
+ * Time budget of the regex passes over one source file (0 disables it) and the report of the files whose
+ * pass was abandoned over it. Shared by the scan threads of one task execution.
+ */
+internal class ScanBudget(private val timeoutMillis: Long, val report: ScanSkipReport = ScanSkipReport()) {
+    fun deadline(): ScanDeadline = ScanDeadline.after(timeoutMillis)
+
+    fun skipped(path: String, pass: String, timeout: ScanDeadline.ScanTimeoutException, warn: (String) -> Unit) {
+        report.record(path, pass, timeout.elapsedMillis())
+        warn("Skipping $pass pass over $path after ${timeout.elapsedMillis()} ms: ${timeout.message}")
+    }
+}
+
+// Runs on a scan worker thread: must only touch thread-safe state. Scan failures are reported to [warn]
+// and yield an empty result so that one bad file cannot fail the build; files over the time budget are
+// also recorded in the budget's report under [reportPath].
+internal fun scanAstFile(
+    scanner: ScannerFacade,
+    file: File,
+    reportPath: String,
+    includePkgs: List<String>,
+    excludePkgs: List<String>,
+    prefixes: PackagePrefixFilter,
+    budget: ScanBudget,
+    warn: (String) -> Unit
+): AstFileScan {
+    // Package pushdown: a file none of whose classes can pass the prefix filter is not read any further.
+    val pkg = PackageSniffer.sniff(file.toPath())
+    if (pkg != null && !prefixes.mayAcceptClassesIn(pkg)) return AstFileScan.EMPTY
+    val language = if (file.name.endsWith(".java")) "Java" else "Kotlin"
+    val events = try {
+        scanner.scan(file.toPath(), includePkgs, excludePkgs)
+    } catch (e: StackOverflowError) {
+        warn("Skipping $language file due to StackOverflowError during scan: ${file} -> ${e.message}")
+        emptyList()
+    } catch (t: Throwable) {
+        warn("Skipping $language file due to unexpected error during scan: ${file} -> ${t.message}")
+        emptyList()
+    }
+    if (!file.name.endsWith(".java") || events.isNotEmpty()) return AstFileScan(events, emptySet(), null)
+
+    // Fallback: the AST pass reports every method body it sees, so a Java file without events failed to
+    // parse (or has no method bodies). Its methods still get entry/exit rules from the regex parser.
+    val text = file.readText()
+    val missing = try {
+        findJavaMethods(text, budget.deadline())
+    } catch (e: ScanDeadline.ScanTimeoutException) {
+        budget.skipped(reportPath, PASS_JAVA_METHOD_INDEX, e, warn)
+        emptySet()
+    }
+    return AstFileScan(events, missing, if (missing.isEmpty()) null else text)
+}
+
+// `Class.method` keys of the methods the regex parser finds in [text]. Throws a ScanTimeoutException once
+// [deadline] has passed.
+internal fun findJavaMethods(text: String, deadline: ScanDeadline = ScanDeadline.NONE): Set<String> {
+    val sanitized = JavaPrefilter.prefilterJava(text)
+    val guarded = deadline.guard(sanitized)
+    val pkg = JAVA_PACKAGE_REGEX.find(guarded)?.groupValues?.getOrNull(1).orEmpty()
+    val braces = BraceIndex.of(sanitized)
+    // Class bodies are matched in place through a matcher region instead of being copied.
+    val methodMatcher = JAVA_METHOD_PATTERN.matcher(guarded)
+    val methods = mutableSetOf<String>()
+    var searchIndex = 0
+    while (true) {
+        val classMatch = JAVA_CLASS_REGEX.find(guarded, searchIndex) ?: break
+        val openIndex = sanitized.indexOf('{', classMatch.range.last + 1)
+        if (openIndex < 0) {
+            searchIndex = classMatch.range.last + 1
+            continue
+        }
+        val closeIndex = braces.closeOf(openIndex)
+        val className = classMatch.groupValues[1]
+        val fqcn = if (pkg.isBlank()) className else "$pkg.$className"
+        methodMatcher.region(openIndex + 1, closeIndex)
+        while (methodMatcher.find()) {
+            methods.add("${fqcn}.${methodMatcher.group(1)}")
+        }
+        searchIndex = closeIndex + 1
+    }
+    return methods
+}
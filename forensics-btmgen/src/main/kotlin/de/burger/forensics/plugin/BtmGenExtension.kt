@@ -34,8 +34,53 @@ abstract class BtmGenExtension @Inject constructor(
     val minBranchesPerMethod: Property<Int> = objects.property(Int::class.java)
     val safeMode: Property<Boolean> = objects.property(Boolean::class.java)
     val forceHelperForWhitelist: Property<Boolean> = objects.property(Boolean::class.java)
+    /**
+     * Emit one rule per if/is that evaluates the condition once and reports its outcome, instead of an
+     * if-true and an if-false rule triggering at the same line (default: false). A Java if without else
+     * keeps its single if-true rule.
+     */
+    val fuseDecisions: Property<Boolean> = objects.property(Boolean::class.java)
+    /**
+     * Target Java methods with their exact parameter types, METHOD name(int,String), instead of every
+     * overload with METHOD name(..) where the scanned signature allows it (default: false).
+     */
+    val exactSignatures: Property<Boolean> = objects.property(Boolean::class.java)
+    /**
+     * Add Byteman's COMPILE clause to every rule, so rules run as bytecode instead of being interpreted
+     * (default: false). [compilePackages] and [compileRuleKinds] select rules to compile instead.
+     */
+    val compileRules: Property<Boolean> = objects.property(Boolean::class.java)
+    /** Package or class name prefixes whose rules get the COMPILE clause, e.g. hot-path packages. */
+    val compilePackages: ListProperty<String> = objects.listProperty(String::class.java)
+    /**
+     * Rule kinds that get the COMPILE clause: entry, exit, if-true, if-false, if, is-true, is-false, is,
+     * when, case or write; combined with [compilePackages], only those kinds in those packages.
+     */
+    val compileRuleKinds: ListProperty<String> = objects.listProperty(String::class.java)
     val maxFileBytes: Property<Long> = objects.property(Long::class.java)
+    /**
+     * Time budget in milliseconds of each regex pass over a Java file; files that run over it are skipped
+     * and listed in the task's skip report (default: 30 s, 0 disables the budget).
+     */
+    val scanTimeoutMillis: Property<Long> = objects.property(Long::class.java)
     val useAstScanner: Property<Boolean> = objects.property(Boolean::class.java)
+    /**
+     * Kotlin scanner of the AST path: "lexer" (default) or "psi" for the Kotlin compiler's PSI, parsed
+     * in parallel with one PSI environment per scan thread.
+     */
+    val kotlinScanner: Property<String> = objects.property(String::class.java)
+    /**
+     * Keep per-file rule fragments so that runs where only sources changed rescan just those files
+     * and rewrite only the affected shards (default: false).
+     */
+    val incremental: Property<Boolean> = objects.property(Boolean::class.java)
+    /**
+     * Reuse scan results for source contents seen before, kept in a persistent cache under the Gradle
+     * user home that is shared across checkouts and branches (default: false).
+     */
+    val scanCache: Property<Boolean> = objects.property(Boolean::class.java)
+    /** Size cap of the scan cache in bytes; least recently used entries are evicted (default: 256 MiB). */
+    val scanCacheMaxBytes: Property<Long> = objects.property(Long::class.java)
     val outputDir: DirectoryProperty = objects.directoryProperty()
     /**
      * Maximum number of characters allowed when embedding source snippets or values into
@@ -85,8 +130,18 @@ abstract class BtmGenExtension @Inject constructor(
         maxStringLength.convention(0)
         safeMode.convention(false)
         forceHelperForWhitelist.convention(false)
+        fuseDecisions.convention(false)
+        exactSignatures.convention(false)
+        compileRules.convention(false)
+        compilePackages.convention(emptyList())
+        compileRuleKinds.convention(emptyList())
         maxFileBytes.convention(2_000_000L)
+        scanTimeoutMillis.convention(30_000L)
         useAstScanner.convention(true)
+        kotlinScanner.convention("lexer")
+        incremental.convention(false)
+        scanCache.convention(false)
+        scanCacheMaxBytes.convention(256L * 1024 * 1024)
         logLevel.convention("ERROR")
         logToFile.convention(true)
         logFilePath.convention("logs/forensics-btmgen.log")
@@ -15,6 +15,20 @@ class BtmGenPlugin : Plugin<Project> {
             project.layout
         )
 
+        // One pool of Kotlin PSI environments for the whole build, shared by every generator and scan task.
+        val psiEnvironment = project.gradle.sharedServices.registerIfAbsent(
+            KotlinPsiEnvironmentService.NAME,
+            KotlinPsiEnvironmentService::class.java
+        ) { }
+        project.tasks.withType(GenerateBtmTask::class.java).configureEach { task ->
+            task.kotlinPsiEnvironment.convention(psiEnvironment)
+            task.usesService(psiEnvironment)
+        }
+        project.tasks.withType(ScanSourcesTask::class.java).configureEach { task ->
+            task.kotlinPsiEnvironment.convention(psiEnvironment)
+            task.usesService(psiEnvironment)
+        }
+
         // Ensure a default logfile exists so users can immediately find it,
         // and wire system properties so MethodLoggingAspect (if woven) writes to the same path.
         project.afterEvaluate {
@@ -1,9 +1,21 @@
 package de.burger.forensics.plugin
 
-import de.burger.forensics.plugin.engine.JavaPrefilter
 import de.burger.forensics.plugin.engine.JavaRegexParser
+import de.burger.forensics.plugin.engine.ScanDeadline
 import de.burger.forensics.plugin.engine.SourceFileGuards
+import de.burger.forensics.plugin.io.RuleFragmentStore
 import de.burger.forensics.plugin.io.ShardedWriter
+import de.burger.forensics.plugin.rule.BtmRule
+import de.burger.forensics.plugin.rule.BytemanSignatures
+import de.burger.forensics.plugin.rule.CompilePolicy
+import de.burger.forensics.plugin.rule.BytemanStrings
+import de.burger.forensics.plugin.rule.RuleKind
+import de.burger.forensics.plugin.rule.RuleRenderer
+import de.burger.forensics.plugin.scan.PackagePrefixFilter
+import de.burger.forensics.plugin.scan.PackageSniffer
+import de.burger.forensics.plugin.scan.ParallelScanEngine
+import de.burger.forensics.plugin.scan.ScanArtifact
+import de.burger.forensics.plugin.scan.ScanCache
 import de.burger.forensics.plugin.scan.ScanEvent
 import de.burger.forensics.plugin.scan.ScannerFacade
 import de.burger.forensics.plugin.strategy.ConditionStrategy
@@ -14,23 +26,19 @@ import de.burger.forensics.plugin.translate.UnsafeExprTranslator
 import de.burger.forensics.plugin.util.HashUtil
 import de.burger.forensics.plugin.util.RuleIdUtil
 import org.gradle.api.DefaultTask
+import org.gradle.api.InvalidUserDataException
 import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileType
+import org.gradle.api.file.RegularFileProperty
 import org.gradle.api.provider.ListProperty
 import org.gradle.api.provider.Property
 import org.gradle.api.tasks.*
-import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
-import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSourceLocation
-import org.jetbrains.kotlin.cli.common.messages.MessageCollector
-import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
-import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
-import org.jetbrains.kotlin.com.intellij.openapi.Disposable
-import org.jetbrains.kotlin.com.intellij.openapi.util.Disposer
-import org.jetbrains.kotlin.config.CommonConfigurationKeys
-import org.jetbrains.kotlin.config.CompilerConfiguration
-import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.gradle.work.ChangeType
+import org.gradle.work.Incremental
+import org.gradle.work.InputChanges
 import org.jetbrains.kotlin.lexer.KtTokens
 import org.jetbrains.kotlin.psi.*
-import org.jetbrains.kotlin.psi.psiUtil.containingClassOrObject
 import org.jetbrains.kotlin.psi.psiUtil.startOffset
 import java.io.File
 import java.nio.file.Files
@@ -50,6 +58,7 @@ abstract class GenerateBtmTask : DefaultTask() {
         includeTimestamp.convention(false)
         maxStringLength.convention(0)
         maxFileBytes.convention(2_000_000L)
+        scanTimeoutMillis.convention(30_000L)
 
         // New DSL inputs
         pkgPrefixes.convention(emptyList())
@@ -72,9 +81,23 @@ abstract class GenerateBtmTask : DefaultTask() {
         minBranchesPerMethod.convention(0)
         safeMode.convention(false)
         forceHelperForWhitelist.convention(false)
+        fuseDecisions.convention(false)
+        exactSignatures.convention(false)
+        compileRules.convention(false)
+        compilePackages.convention(emptyList())
+        compileRuleKinds.convention(emptyList())
         useAstScanner.convention(true)
+        kotlinScanner.convention(KOTLIN_SCANNER_LEXER)
+        incremental.convention(false)
+        scanCache.convention(false)
+        scanCacheDir.convention(
+            project.layout.dir(project.provider { File(project.gradle.gradleUserHomeDir, "caches/forensics-btmgen/scan") })
+        )
+        scanCacheMaxBytes.convention(256L * 1024 * 1024)
 
         outputDir.convention(project.layout.buildDirectory.dir("forensics"))
+        fragmentDir.convention(project.layout.buildDirectory.dir("forensics-fragments/$name"))
+        skipReport.convention(project.layout.buildDirectory.file("forensics-reports/$name-skipped.txt"))
     }
 
     @get:Internal
@@ -83,14 +106,7 @@ abstract class GenerateBtmTask : DefaultTask() {
     private companion object {
         const val SAFE_EVAL_FQCN: String = "org.example.trace.SafeEval"
         const val SUBJECTLESS_WHEN_PLACEHOLDER: String = "when { … }"
-        private val JAVA_PACKAGE_REGEX = Regex("(?m)^\\s*package\\s+([a-zA-Z0-9_.]+)\\s*;")
-        private val JAVA_CLASS_REGEX = Regex(
-            "(?m)^\\s*(?:@[\\w.$]+(?:\\([^)]*\\))?\\s*)*(?:(?:\\b(?:public|protected|private|abstract|final|static|strictfp|sealed)\\b|non-sealed)\\s+)*class\\s+([A-Za-z0-9_]+)"
-        )
-        private val JAVA_METHOD_REGEX = Regex(
-            "(?m)^\\s*(?:@[\\w.$]+(?:\\([^)]*\\))?\\s*)*(?:\\b(?:public|protected|private|abstract|final|static|strictfp|synchronized|native|default)\\b\\s+)*(?:<[^>]+>\\s*)?[\\w$<>\\[\\],.?\\s]+\\s+([A-Za-z0-9_]+)\\s*\\([^)]*\\)\\s*\\{"
-        )
-        private val ENTRY_EXIT_RULE_REGEX = Regex("^RULE\\s+(?:enter|exit)@([\\w.$]+)\\.([A-Za-z0-9_]+)", RegexOption.MULTILINE)
+        private val EVENT_ORDER = compareBy<ScanEvent>({ it.language }, { it.fqcn }, { it.method }, { it.line }, { it.kind })
     }
 
     private enum class LogLevel { TRACE, DEBUG, INFO, WARN, ERROR; companion object {
@@ -130,6 +146,13 @@ abstract class GenerateBtmTask : DefaultTask() {
     @get:Input
     abstract val maxFileBytes: Property<Long>
 
+    /**
+     * Time budget in milliseconds of each regex pass over a Java file; a pass that runs over it, e.g. by
+     * catastrophic backtracking, is abandoned and recorded in [skipReport]. 0 disables the budget.
+     */
+    @get:Input
+    abstract val scanTimeoutMillis: Property<Long>
+
     // New DSL inputs
     @get:Input
     abstract val pkgPrefixes: ListProperty<String>
@@ -188,107 +211,136 @@ abstract class GenerateBtmTask : DefaultTask() {
     @get:Input
     abstract val forceHelperForWhitelist: Property<Boolean>
 
+    /**
+     * Emit one [BtmRule.decision] rule per if/is, binding the condition once and passing the outcome to
+     * `iff`, instead of an if-true/if-false pair that triggers twice and evaluates the condition twice.
+     * A Java `if` without `else` has a single if-true rule only and keeps it, so a fused rule always
+     * stands for two outcomes and [minBranchesPerMethod] selects the same methods either way.
+     */
+    @get:Input
+    abstract val fuseDecisions: Property<Boolean>
+
+    /**
+     * Render `METHOD name(T1,T2)` from the signatures of Java scan events, so that rules are injected into
+     * one overload only. Signatures with type variables or nested types, Kotlin events and the regex
+     * path keep `METHOD name(..)`.
+     */
+    @get:Input
+    abstract val exactSignatures: Property<Boolean>
+
+    /**
+     * Render every rule with Byteman's `COMPILE` clause, trading a class generation per injected rule for
+     * bytecode speed on every hit. [compilePackages] and [compileRuleKinds] compile selected rules only.
+     */
+    @get:Input
+    abstract val compileRules: Property<Boolean>
+
+    /** Package or class name prefixes whose rules are compiled, see [CompilePolicy]. */
+    @get:Input
+    abstract val compilePackages: ListProperty<String>
+
+    /** Ids of the rule kinds that are compiled, e.g. `entry`, `exit` or `if-true`, see [RuleKind.id]. */
+    @get:Input
+    abstract val compileRuleKinds: ListProperty<String>
+
     @get:Input
     abstract val useAstScanner: Property<Boolean>
 
+    /**
+     * Kotlin scanner of the AST path: `lexer` (default) tokenizes the sources, `psi` parses them with the
+     * Kotlin compiler's PSI, one environment per scan thread, for the accuracy of the legacy path.
+     */
+    @get:Input
+    abstract val kotlinScanner: Property<String>
+
+    /**
+     * Keep per-file rule fragments and, when Gradle reports only source file changes, rescan just
+     * the changed files and rewrite only the shards they contribute to.
+     */
+    @get:Input
+    abstract val incremental: Property<Boolean>
+
+    /**
+     * Reuse scan results of source files whose content was scanned before, in any checkout or branch.
+     * Does not affect the generated rules, hence not an input.
+     */
+    @get:Internal
+    abstract val scanCache: Property<Boolean>
+
+    /** Location of the persistent scan cache, shared by all builds of this user by default. */
+    @get:Internal
+    abstract val scanCacheDir: DirectoryProperty
+
+    /** Size cap of the scan cache; least recently used entries are evicted beyond it. */
+    @get:Internal
+    abstract val scanCacheMaxBytes: Property<Long>
+
+    /**
+     * Event artifact written by [ScanSourcesTask]. When set, the AST path renders rules from it instead
+     * of scanning the sources itself, so changing rendering inputs does not trigger a rescan.
+     */
+    @get:InputFile
+    @get:Optional
+    @get:PathSensitive(PathSensitivity.NONE)
+    abstract val scanResults: RegularFileProperty
+
+    /** Shared Kotlin PSI environments of the build, wired by [BtmGenPlugin]. */
+    @get:Internal
+    abstract val kotlinPsiEnvironment: Property<KotlinPsiEnvironmentService>
+
     @get:OutputDirectory
     abstract val outputDir: DirectoryProperty
 
+    /** Per-source rule fragments used by [incremental] generation. */
+    @get:LocalState
+    abstract val fragmentDir: DirectoryProperty
+
+    /** Files of this execution whose scan ran over [scanTimeoutMillis], with the time spent on them. */
+    @get:OutputFile
+    abstract val skipReport: RegularFileProperty
+
+    @get:Incremental
     @get:InputFiles
     @get:PathSensitive(PathSensitivity.RELATIVE)
+    protected val sourceFiles: FileCollection =
+        project.files(project.provider { if (rendersScanResults) emptyList() else kotlinSourceFiles + javaSourceFiles })
+
+    private val rendersScanResults: Boolean
+        get() = scanResults.isPresent && useAstScanner.getOrElse(true)
+
+    @get:Internal
     protected val kotlinSourceFiles: List<File>
-        get() = resolveFiles(withExtension = ".kt")
+        get() = sourceInventory().kotlinFiles
 
-    @get:InputFiles
-    @get:PathSensitive(PathSensitivity.RELATIVE)
+    @get:Internal
     protected val javaSourceFiles: List<File>
-        get() = if (includeJava.getOrElse(false)) resolveFiles(withExtension = ".java") else emptyList()
+        get() = if (includeJava.getOrElse(false)) sourceInventory().javaFiles else emptyList()
+
+    // Fingerprinting and the task action share one walk of the source roots; the inventory is dropped
+    // after each execution so that the next one sees the current tree.
+    @Transient
+    private var inventory: Pair<List<Any?>, SourceInventory>? = null
 
-    private fun resolveFiles(withExtension: String): List<File> {
+    private fun sourceInventory(): SourceInventory {
         val directories = srcDirs.orNull?.map { resolvePath(it) }?.filter { it.exists() } ?: emptyList()
         val includes = includePatterns.orNull?.takeIf { it.isNotEmpty() }
         val excludes = excludePatterns.orNull?.takeIf { it.isNotEmpty() } ?: emptyList()
-        val result = mutableListOf<File>()
-        directories.forEach { dir ->
-            Files.walk(dir.toPath()).use { paths ->
-                paths.filter { Files.isRegularFile(it) && it.toString().endsWith(withExtension) }
-                    .forEach { p ->
-                        val rel = dir.toPath().relativize(p).toString().replace('\\', '/')
-                        val incOk = includes?.any { globMatch(rel, it) } ?: true
-                        val excOk = excludes.none { globMatch(rel, it) }
-                        if (incOk && excOk) result.add(p.toFile())
-                    }
-            }
-        }
-        return result.sortedBy { it.absolutePath }
+        val key = listOf(directories, includes, excludes)
+        inventory?.takeIf { it.first == key }?.let { return it.second }
+        return SourceInventory.scan(directories, includes, excludes).also { inventory = key to it }
     }
 
-    private fun globMatch(path: String, pattern: String): Boolean = globMatchesPath(path, pattern)
+    // Path of a source in the skip report: relative to the project directory when it lies inside it.
+    private fun reportPath(file: File): String {
+        val relative = file.toRelativeString(project.layout.projectDirectory.asFile)
+        return if (relative.startsWith("..")) file.absolutePath else relative.replace('\\', '/')
+    }
 
     private fun resolvePath(path: String): File {
         val file = File(path)
         return if (file.isAbsolute) file else project.layout.projectDirectory.file(path).asFile
     }
 
-    private fun extractClassName(rule: String): String? {
-        val m = Regex("(?m)^\\s*CLASS\\s+([\\w.$]+)").find(rule)
-        return m?.groupValues?.getOrNull(1)
-    }
-
-    private fun extractMethodKey(rule: String): String? {
-        val m = Regex("(?m)^\\s*RULE\\s+([\\w.$]+)\\.([A-Za-z0-9_]+):").find(rule)
-        return m?.let { it.groupValues[1] + "." + it.groupValues[2] }
-    }
-
-    private fun extractEntryExitMethod(rule: String): String? {
-        val m = ENTRY_EXIT_RULE_REGEX.find(rule)
-        return m?.let { "${it.groupValues[1]}.${it.groupValues[2]}" }
-    }
-
-    private fun findMissingJavaMethods(text: String, seenJavaMethods: Set<String>): Set<String> {
-        val sanitized = JavaPrefilter.prefilterJava(text)
-        val pkg = JAVA_PACKAGE_REGEX.find(sanitized)?.groupValues?.getOrNull(1).orEmpty()
-        val missing = mutableSetOf<String>()
-        var searchIndex = 0
-        while (true) {
-            val classMatch = JAVA_CLASS_REGEX.find(sanitized, searchIndex) ?: break
-            val openIndex = sanitized.indexOf('{', classMatch.range.last + 1)
-            if (openIndex < 0) {
-                searchIndex = classMatch.range.last + 1
-                continue
-            }
-            val closeIndex = findMatchingBrace(sanitized, openIndex)
-            val className = classMatch.groupValues[1]
-            val fqcn = if (pkg.isBlank()) className else "$pkg.$className"
-            val body = sanitized.substring(openIndex + 1, closeIndex)
-            JAVA_METHOD_REGEX.findAll(body).forEach { methodMatch ->
-                val methodName = methodMatch.groupValues[1]
-                val methodKey = "${fqcn}.${methodName}"
-                if (methodKey !in seenJavaMethods) {
-                    missing.add(methodKey)
-                }
-            }
-            searchIndex = closeIndex + 1
-        }
-        return missing
-    }
-
-    private fun findMatchingBrace(text: String, openIndex: Int): Int {
-        var depth = 0
-        for (i in openIndex until text.length) {
-            when (text[i]) {
-                '{' -> depth++
-                '}' -> {
-                    depth--
-                    if (depth == 0) {
-                        return i
-                    }
-                }
-            }
-        }
-        return text.length - 1
-    }
-
     private fun ensureLogFile(): File? {
         return try {
             if (!logToFile.getOrElse(true)) return null
@@ -316,21 +368,42 @@ abstract class GenerateBtmTask : DefaultTask() {
         }
     }
 
-    @TaskAction
+    /** Full generation; also used when the task is invoked programmatically without input changes. */
     fun generate() {
+        generateRules(null)
+    }
+
+    @TaskAction
+    fun generate(inputChanges: InputChanges) {
+        generateRules(inputChanges)
+    }
+
+    private fun generateRules(changes: InputChanges?) {
         // Ensure a log file is always present for this task run
         logger.info("Start generate")
         ensureLogFile()
-        if (useAstScanner.getOrElse(true)) {
-            logger.info("Start generateWithAst")
-            generateWithAst()
-        } else {
-            logger.info("Start generateLegacy")
-            generateLegacy()
+        val budget = ScanBudget(scanTimeoutMillis.getOrElse(30_000L))
+        try {
+            if (useAstScanner.getOrElse(true)) {
+                logger.info("Start generateWithAst")
+                generateWithAst(changes, budget)
+            } else {
+                logger.info("Start generateLegacy")
+                if (scanResults.isPresent) {
+                    logger.warn("scanResults is ignored because useAstScanner is false; scanning sources directly")
+                }
+                generateLegacy(changes, budget)
+            }
+            budget.report.write(skipReport.get().asFile.toPath())
+            if (!budget.report.isEmpty) {
+                logger.warn("Some source files ran over scanTimeoutMillis, see ${skipReport.get().asFile}")
+            }
+        } finally {
+            inventory = null
         }
     }
 
-    private fun generateLegacy() {
+    private fun generateLegacy(changes: InputChanges?, budget: ScanBudget) {
         val outputDirectory = outputDir.get().asFile
         val debugSink: (String) -> Unit = if (shouldLog(LogLevel.DEBUG)) ({ m ->
             run {
@@ -347,19 +420,12 @@ abstract class GenerateBtmTask : DefaultTask() {
             pkgPrefixes.orNull?.filter { it.isNotBlank() }?.let { addAll(it) }
             if (legacyPrefix != null) add(legacyPrefix)
         }
+        val prefixFilter = PackagePrefixFilter.of(allPkgPrefixes, emptyList())
         val tracked = trackedVars.orNull?.toSet() ?: emptySet()
         val includeEntryExit = entryExit.getOrElse(true)
         val maxLen = maxStringLength.getOrElse(0)
         val limit = maxFileBytes.getOrElse(2_000_000L)
-
         val shardCount = shards.getOrElse(Runtime.getRuntime().availableProcessors()).coerceAtLeast(1)
-        val gzip = gzipOutput.getOrElse(false)
-        val prefix = filePrefix.getOrElse("tracing-").ifBlank { "tracing-" }
-        val rotateMaxBytesValue = rotateMaxBytesPerFile.orNull ?: (4L * 1024 * 1024)
-        val rotateIntervalSecondsValue = rotateIntervalSeconds.orNull ?: 0L
-        val flushThresholdValue = flushThresholdBytes.orNull ?: (64 * 1024)
-        val flushIntervalValue = flushIntervalMillis.orNull ?: 2000L
-        val threadSafeValue = writerThreadSafe.orNull ?: false
         val minBranches = minBranchesPerMethod.getOrElse(0)
 
         val header = buildString {
@@ -385,95 +451,94 @@ abstract class GenerateBtmTask : DefaultTask() {
             }
         }
 
-        ShardedWriter(
-            outputDirectory,
-            shardCount,
-            gzip,
-            prefix,
-            rotateMaxBytesValue,
-            rotateIntervalSecondsValue,
-            flushThresholdValue,
-            flushIntervalValue,
-            threadSafeValue
-        ).use { writer ->
-            writer.writeHeader(header)
-
-            val ktFiles = kotlinSourceFiles
+        // Kotlin first, then Java; scanning any subset of this list keeps the same relative order.
+        val sources = sourceInventory()
+        val sourceList = kotlinSourceFiles + if (includeJava.getOrElse(false)) javaSourceFiles else emptyList()
+        emitRules(header, sourceList, prefixFilter, minBranches, shardCount, changes) { files, sink ->
+            val ktFiles = files.filter { it.name.endsWith(".kt") }
             if (ktFiles.isNotEmpty()) {
-                val envHolder = createEnvironment()
-                try {
-                    val psiFactory = KtPsiFactory(envHolder.environment.project, false)
+                withPsiEnvironment { lease ->
                     ktFiles.forEach { file ->
-                        if (SourceFileGuards.shouldSkipLargeFile(file, limit, debugSink)) return@forEach
+                        if (outsidePrefixes(file, prefixFilter) ||
+                            SourceFileGuards.shouldSkipLargeFile(file, sources.sizeOf(file), limit, debugSink)
+                        ) {
+                            sink(file, emptyList())
+                            return@forEach
+                        }
                         val text = file.readText()
-                        val ktFile = psiFactory.createFile(file.name, text)
-                        val fileRules = processKotlinFile(ktFile, text, helper, legacyPrefix, tracked, includeEntryExit)
-                        dispatchRules(fileRules, allPkgPrefixes, minBranches, shardCount, writer)
+                        val ktFile = lease.psiFactory.createFile(file.name, text)
+                        sink(file, processKotlinFile(ktFile, text, helper, legacyPrefix, tracked, includeEntryExit))
                     }
-                } finally {
-                    Disposer.dispose(envHolder.disposable)
                 }
             }
 
-            if (includeJava.getOrElse(false)) {
-                val scanner = JavaRegexParser()
-                val par = parallelism.getOrElse(1)
-                if (par > 1) {
-                    javaSourceFiles.parallelStream().forEachOrdered { file ->
-                        if (SourceFileGuards.shouldSkipLargeFile(file, limit, debugSink)) return@forEachOrdered
-                        val text = file.readText()
-                        try {
-                            val fileRules = scanner.scan(text, helper, legacyPrefix, includeEntryExit, maxLen)
-                            dispatchRules(fileRules, allPkgPrefixes, minBranches, shardCount, writer)
-                        } catch (e: StackOverflowError) {
-                            if (shouldLog(LogLevel.WARN)) {
-                                logger.warn("Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}")
-                                fileLog(
-                                    "WARN",
-                                    "Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}"
-                                )
-                            }
-                        } catch (t: Throwable) {
-                            if (shouldLog(LogLevel.WARN)) {
-                                logger.warn("Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}")
-                                fileLog(
-                                    "WARN",
-                                    "Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}"
-                                )
-                            }
-                        }
-                    }
-                } else {
-                    javaSourceFiles.forEach { file ->
-                        if (SourceFileGuards.shouldSkipLargeFile(file, limit, debugSink)) return@forEach
-                        val text = file.readText()
-                        try {
-                            val fileRules = scanner.scan(text, helper, legacyPrefix, includeEntryExit, maxLen)
-                            dispatchRules(fileRules, allPkgPrefixes, minBranches, shardCount, writer)
-                        } catch (e: StackOverflowError) {
-                            if (shouldLog(LogLevel.WARN)) {
-                                logger.warn("Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}")
-                                fileLog(
-                                    "WARN",
-                                    "Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}"
-                                )
-                            }
-                        } catch (t: Throwable) {
-                            if (shouldLog(LogLevel.WARN)) {
-                                logger.warn("Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}")
-                                fileLog(
-                                    "WARN",
-                                    "Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}"
-                                )
+            val javaFiles = files.filter { it.name.endsWith(".java") }
+            if (javaFiles.isNotEmpty()) {
+                val scanner = JavaRegexParser(fuseDecisions.getOrElse(false))
+                ParallelScanEngine(parallelism.getOrElse(1)).use { engine ->
+                    engine.forEachOrdered(
+                        javaFiles,
+                        { file ->
+                            if (outsidePrefixes(file, prefixFilter)) {
+                                file to emptyList()
+                            } else {
+                                file to scanJavaFileWithRegex(scanner, file, sources.sizeOf(file), helper, legacyPrefix, includeEntryExit, maxLen, limit, budget, debugSink)
                             }
                         }
-                    }
+                    ) { (file, fileRules) -> sink(file, fileRules) }
                 }
             }
         }
     }
 
-    private fun generateWithAst() {
+    // Package pushdown for the legacy path: dispatchRules would drop every rule of such a file anyway.
+    private fun outsidePrefixes(file: File, prefixes: PackagePrefixFilter): Boolean {
+        val pkg = PackageSniffer.sniff(file.toPath()) ?: return false
+        return !prefixes.mayAcceptClassesIn(pkg)
+    }
+
+    // Runs on a scan worker thread, see scanAstFile.
+    private fun scanJavaFileWithRegex(
+        scanner: JavaRegexParser,
+        file: File,
+        size: Long,
+        helper: String,
+        legacyPrefix: String?,
+        includeEntryExit: Boolean,
+        maxLen: Int,
+        limit: Long,
+        budget: ScanBudget,
+        debugSink: (String) -> Unit
+    ): List<BtmRule> {
+        if (SourceFileGuards.shouldSkipLargeFile(file, size, limit, debugSink)) return emptyList()
+        val text = file.readText()
+        return try {
+            scanner.scanRules(text, helper, legacyPrefix, includeEntryExit, maxLen, budget.deadline())
+        } catch (e: ScanDeadline.ScanTimeoutException) {
+            budget.skipped(reportPath(file), PASS_JAVA_REGEX, e, warnSink())
+            emptyList()
+        } catch (e: StackOverflowError) {
+            if (shouldLog(LogLevel.WARN)) {
+                logger.warn("Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}")
+                fileLog(
+                    "WARN",
+                    "Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}"
+                )
+            }
+            emptyList()
+        } catch (t: Throwable) {
+            if (shouldLog(LogLevel.WARN)) {
+                logger.warn("Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}")
+                fileLog(
+                    "WARN",
+                    "Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}"
+                )
+            }
+            emptyList()
+        }
+    }
+
+    private fun generateWithAst(changes: InputChanges?, budget: ScanBudget) {
         val outputDirectory = outputDir.get().asFile
         val debugSink: (String) -> Unit = if (shouldLog(LogLevel.DEBUG)) ({ m ->
             run {
@@ -491,18 +556,12 @@ abstract class GenerateBtmTask : DefaultTask() {
             pkgPrefixes.orNull?.filter { it.isNotBlank() }?.let { addAll(it) }
             if (legacyPrefix != null) add(legacyPrefix)
         }
+        val prefixFilter = PackagePrefixFilter.of(allPkgPrefixes, emptyList())
         val tracked = trackedVars.orNull?.toSet() ?: emptySet()
         val includeEntryExit = entryExit.getOrElse(true)
         val limit = maxFileBytes.getOrElse(2_000_000L)
         val minBranches = minBranchesPerMethod.getOrElse(0)
         val shardCount = shards.getOrElse(Runtime.getRuntime().availableProcessors()).coerceAtLeast(1)
-        val gzip = gzipOutput.getOrElse(false)
-        val prefix = filePrefix.getOrElse("tracing-").ifBlank { "tracing-" }
-        val rotateMaxBytesValue = rotateMaxBytesPerFile.orNull ?: (4L * 1024 * 1024)
-        val rotateIntervalSecondsValue = rotateIntervalSeconds.orNull ?: 0L
-        val flushThresholdValue = flushThresholdBytes.orNull ?: (64 * 1024)
-        val flushIntervalValue = flushIntervalMillis.orNull ?: 2000L
-        val threadSafeValue = writerThreadSafe.orNull ?: false
 
         val header = buildString {
             if (includeTimestamp.getOrElse(false)) {
@@ -528,224 +587,390 @@ abstract class GenerateBtmTask : DefaultTask() {
             }
         }
 
-        val scanner = ScannerFacade()
-        val events = mutableListOf<ScanEvent>()
+        val fallbackParser = JavaRegexParser(fuseDecisions.getOrElse(false))
+        val maxLen = maxStringLength.getOrElse(0)
+        val fileRules: (ScannedFile) -> List<BtmRule> = { scanned ->
+            val rules = eventRules(scanned.events, helper, prefixFilter, includeEntryExit)
+            rules += scanned.fallbackRules
+            rules
+        }
+
+        if (rendersScanResults) {
+            val scans = ScanArtifact.read(scanResults.get().asFile.toPath())
+            val scansByFile = scans.associateBy { File(it.path()) }
+            emitRules(header, scansByFile.keys.toList(), prefixFilter, minBranches, shardCount, changes) { files, sink ->
+                ParallelScanEngine(parallelism.getOrElse(1)).use { engine ->
+                    engine.forEachOrdered(
+                        files,
+                        { file ->
+                            val scan = scansByFile.getValue(file)
+                            val fallbackRules = javaFallbackRules(
+                                scan.path(), scan.missingJavaMethods(), scan.fallbackSource(),
+                                fallbackParser, helper, legacyPrefix, includeEntryExit, maxLen, budget
+                            )
+                            ScannedFile(file, scan.events(), fallbackRules)
+                        }
+                    ) { scanned -> sink(scanned.file, fileRules(scanned)) }
+                }
+            }
+            return
+        }
+
+        val cache = if (scanCache.getOrElse(false)) {
+            ScanCache(scanCacheDir.get().asFile.toPath(), scanCacheMaxBytes.getOrElse(256L * 1024 * 1024))
+        } else {
+            null
+        }
+        // Without the build service (task registered without the plugin) PSI scans lease from a private pool.
+        val psiService = kotlinPsiEnvironment.orNull
+        val privatePool = lazy { KotlinPsiEnvironmentPool() }
+        val scanner = scannerFacade(cache, kotlinScanner.get()) { psiService?.lease() ?: privatePool.value.lease() }
         val includePkgs = allPkgPrefixes
         val excludePkgs = emptyList<String>()
+        val javaEnabled = includeJava.getOrElse(false)
+        val warn = warnSink()
+
+        // Java first, then Kotlin, mirroring the language order rules were grouped by before streaming;
+        // the engine hands results back in exactly this order.
+        val sources = sourceInventory()
+        val scanFiles = buildList {
+            if (javaEnabled) addAll(javaSourceFiles)
+            addAll(kotlinSourceFiles)
+        }
 
-        val kotlinFiles = kotlinSourceFiles
-        kotlinFiles.forEach { file ->
-            if (SourceFileGuards.shouldSkipLargeFile(file, limit, debugSink)) return@forEach
-            try {
-                events += scanner.scan(file.toPath(), includePkgs, excludePkgs)
-            } catch (e: StackOverflowError) {
-                if (shouldLog(LogLevel.WARN)) { logger.warn("Skipping Kotlin file due to StackOverflowError during scan: ${file} -> ${e.message}"); fileLog("WARN", "Skipping Kotlin file due to StackOverflowError during scan: ${file} -> ${e.message}") }
-            } catch (t: Throwable) {
-                if (shouldLog(LogLevel.WARN)) {
-                    logger.warn("Skipping Kotlin file due to unexpected error during scan: ${file} -> ${t.message}")
-                    fileLog("WARN", "Skipping Kotlin file due to unexpected error during scan: ${file} -> ${t.message}")
+        try {
+            // Rules are produced and written per file, so only one file's events and rules are held at a time
+            // (plus the scan window of the engine), independent of the size of the source tree.
+            emitRules(header, scanFiles, prefixFilter, minBranches, shardCount, changes) { files, sink ->
+                ParallelScanEngine(parallelism.getOrElse(1)).use { engine ->
+                    engine.forEachOrdered(
+                        files,
+                        { file ->
+                            if (SourceFileGuards.shouldSkipLargeFile(file, sources.sizeOf(file), limit, debugSink)) {
+                                ScannedFile(file, emptyList(), emptyList())
+                            } else {
+                                val path = reportPath(file)
+                                val scan = scanAstFile(scanner, file, path, includePkgs, excludePkgs, prefixFilter, budget, warn)
+                                val fallbackRules = javaFallbackRules(
+                                    path, scan.missingJavaMethods, scan.fallbackSource,
+                                    fallbackParser, helper, legacyPrefix, includeEntryExit, maxLen, budget
+                                )
+                                ScannedFile(file, scan.events, fallbackRules)
+                            }
+                        }
+                    ) { scanned -> sink(scanned.file, fileRules(scanned)) }
                 }
             }
+        } finally {
+            if (privatePool.isInitialized()) privatePool.value.close()
+        }
+        cache?.use {
+            logger.info("Scan cache: ${it.hits()} hit(s), ${it.misses()} miss(es)")
         }
+    }
 
-        if (includeJava.getOrElse(false)) {
-            val javaFiles = javaSourceFiles
-            javaFiles.forEach { file ->
-                if (SourceFileGuards.shouldSkipLargeFile(file, limit, debugSink)) return@forEach
-                try {
-                    events += scanner.scan(file.toPath(), includePkgs, excludePkgs)
-                } catch (e: StackOverflowError) {
-                    if (shouldLog(LogLevel.WARN)) {
-                        logger.warn("Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}")
-                        fileLog("WARN", "Skipping Java file due to StackOverflowError during scan: ${file} -> ${e.message}")
-                    }
-                } catch (t: Throwable) {
-                    if (shouldLog(LogLevel.WARN)) {
-                        logger.warn("Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}")
-                        fileLog("WARN", "Skipping Java file due to unexpected error during scan: ${file} -> ${t.message}")
-                    }
+    // Writes the rules of [files] to the shards. [scan] must scan the files it is given in that order and
+    // report every file to the sink, with an empty list if it yields no rules. In incremental mode the rules
+    // are also kept per file, and an incremental execution rescans only the changed files and rewrites only
+    // the shards whose content can have changed.
+    private fun emitRules(
+        header: String,
+        files: List<File>,
+        prefixes: PackagePrefixFilter,
+        minBranches: Int,
+        shardCount: Int,
+        changes: InputChanges?,
+        scan: (List<File>, (File, List<BtmRule>) -> Unit) -> Unit
+    ) {
+        // Rendering a scan artifact has no per-source changes to work with.
+        val store = if (incremental.getOrElse(false) && !rendersScanResults) RuleFragmentStore(fragmentDir.get().asFile) else null
+        if (store != null && changes != null && changes.isIncremental) {
+            if (emitIncrementally(store, header, files, prefixes, minBranches, shardCount, changes, scan)) return
+            logger.info("Incremental state is incomplete, regenerating all shards")
+        }
+        store?.clear()
+        // Gradle only cleans the output directory before non-incremental executions, so a full rebuild
+        // inside an incremental one replaces every shard explicitly.
+        val replaceAll = if (changes?.isIncremental == true) (0 until shardCount).toSet() else null
+        // The sink runs on this thread only, so one renderer serves every rule.
+        val renderer = RuleRenderer(compilePolicy())
+        openWriter(shardCount, replaceAll).use { writer ->
+            writer.writeHeader(header)
+            scan(files) { file, rules ->
+                val fragment = if (store != null) mutableListOf<RuleFragmentStore.Entry>() else null
+                dispatchRules(rules, prefixes, minBranches, shardCount, renderer) { shard, rule ->
+                    writer.append(shard, rule)
+                    fragment?.add(RuleFragmentStore.Entry(shard, rule.toString()))
                 }
+                if (fragment != null) store?.write(file, fragment)
             }
         }
+    }
 
-        if (events.isEmpty()) {
-            ShardedWriter(
-                outputDirectory,
-                shardCount,
-                gzip,
-                prefix,
-                rotateMaxBytesValue,
-                rotateIntervalSecondsValue,
-                flushThresholdValue,
-                flushIntervalValue,
-                threadSafeValue
-            ).use { writer ->
-                writer.writeHeader(header)
+    private fun emitIncrementally(
+        store: RuleFragmentStore,
+        header: String,
+        files: List<File>,
+        prefixes: PackagePrefixFilter,
+        minBranches: Int,
+        shardCount: Int,
+        changes: InputChanges,
+        scan: (List<File>, (File, List<BtmRule>) -> Unit) -> Unit
+    ): Boolean {
+        val fileChanges = changes.getFileChanges(sourceFiles).filter { it.fileType == FileType.FILE }
+        val changed = fileChanges.mapTo(hashSetOf()) { it.file.absoluteFile }
+        if (files.any { it.absoluteFile !in changed && !store.contains(it) }) return false
+
+        // Shards that held rules of changed or removed files, plus those receiving the new rules.
+        val affectedShards = sortedSetOf<Int>()
+        fileChanges.forEach { change ->
+            store.read(change.file)?.forEach { affectedShards += it.shard() }
+            if (change.changeType == ChangeType.REMOVED) store.remove(change.file)
+        }
+        val rescanned = files.filter { it.absoluteFile in changed }
+        val renderer = RuleRenderer(compilePolicy())
+        scan(rescanned) { file, rules ->
+            val fragment = mutableListOf<RuleFragmentStore.Entry>()
+            dispatchRules(rules, prefixes, minBranches, shardCount, renderer) { shard, rule ->
+                fragment += RuleFragmentStore.Entry(shard, rule.toString())
+                affectedShards += shard
             }
-            return
+            store.write(file, fragment)
+        }
+        logger.info(
+            "Incremental generation: rescanned ${rescanned.size} of ${files.size} file(s), " +
+                "rewriting ${affectedShards.size} of $shardCount shard(s)"
+        )
+        if (affectedShards.isEmpty()) return true
+
+        openWriter(shardCount, affectedShards).use { writer ->
+            writer.writeHeader(header)
+            files.forEach { file ->
+                val entries = store.read(file) ?: return@forEach
+                entries.forEach { if (it.shard() in affectedShards) writer.append(it.shard(), it.rule()) }
+            }
+        }
+        return true
+    }
+
+    private fun compilePolicy(): CompilePolicy {
+        val kinds = compileRuleKinds.getOrElse(emptyList()).filter { it.isNotBlank() }.map { id ->
+            RuleKind.fromId(id.trim()) ?: throw InvalidUserDataException(
+                "Unsupported compileRuleKinds entry '$id', expected one of: " +
+                    RuleKind.entries.joinToString(", ") { it.id() }
+            )
         }
+        return CompilePolicy.of(compileRules.getOrElse(false), compilePackages.getOrElse(emptyList()), kinds)
+    }
 
-        val rules = mutableListOf<String>()
-        val seenMethods = linkedSetOf<String>()
-        val filteredEvents = events.sortedWith(
-            compareBy<ScanEvent>({ it.language }, { it.fqcn }, { it.method }, { it.line }, { it.kind })
+    private fun openWriter(shardCount: Int, activeShards: Set<Int>?): ShardedWriter =
+        ShardedWriter(
+            outputDir.get().asFile,
+            shardCount,
+            gzipOutput.getOrElse(false),
+            filePrefix.getOrElse("tracing-").ifBlank { "tracing-" },
+            rotateMaxBytesPerFile.orNull ?: (4L * 1024 * 1024),
+            rotateIntervalSeconds.orNull ?: 0L,
+            flushThresholdBytes.orNull ?: (64 * 1024),
+            flushIntervalMillis.orNull ?: 2000L,
+            writerThreadSafe.orNull ?: false,
+            activeShards
         )
 
+    // Converts the events of one source file into rules. Entry/exit dedup and the synthetic
+    // subject-less when only ever look at events of the same method, so a per-file window suffices.
+    private fun eventRules(
+        events: List<ScanEvent>,
+        helper: String,
+        prefixes: PackagePrefixFilter,
+        includeEntryExit: Boolean
+    ): MutableList<BtmRule> {
+        val rules = mutableListOf<BtmRule>()
+        if (events.isEmpty()) return rules
+        val seenMethods = hashSetOf<String>()
+        val exact = exactSignatures.getOrElse(false)
+        val ruleSignatures = hashMapOf<String, String>()
+        val sortedEvents = events.sortedWith(EVENT_ORDER)
+
+        // Java ifs with an else, the only ones with an if-false event, and hence a pair to fuse
+        val javaIfsWithElse = if (fuseDecisions.getOrElse(false)) {
+            sortedEvents.asSequence()
+                .filter { it.language == "java" && it.kind == "if-false" }
+                .map(::javaIfKey)
+                .toSet()
+        } else {
+            emptySet()
+        }
+
         // Precompute which methods already have an explicit Kotlin switch (when) event
-        val methodsWithKotlinSwitch = filteredEvents.asSequence()
+        val methodsWithKotlinSwitch = sortedEvents.asSequence()
             .filter { it.language == "kotlin" && it.kind == "switch" }
             .map { "${it.language}:${it.fqcn}:${it.method}:${it.signature}" }
             .toSet()
 
-        filteredEvents.forEach { event ->
+        sortedEvents.forEach { event ->
             if (event.line < 0) return@forEach
-            if (allPkgPrefixes.isNotEmpty() && allPkgPrefixes.none { event.fqcn.startsWith(it) }) return@forEach
+            if (!prefixes.accepts(event.fqcn)) return@forEach
             val methodKey = "${event.language}:${event.fqcn}:${event.method}:${event.signature}"
+            val signature = if (exact && event.language == "java" && event.signature != null) {
+                ruleSignatures.getOrPut(event.signature) {
+                    BytemanSignatures.parameters(event.signature) ?: BtmRule.ANY_SIGNATURE
+                }
+            } else {
+                BtmRule.ANY_SIGNATURE
+            }
             if (includeEntryExit && seenMethods.add(methodKey)) {
-                rules += buildEntryRule(helper, event.fqcn, event.method)
-                rules += buildExitRule(helper, event.fqcn, event.method)
+                rules += BtmRule.entry(helper, event.fqcn, event.method, signature)
+                rules += BtmRule.exit(helper, event.fqcn, event.method, signature)
             }
             // Synthesize a subject-less when selector if we see branches but no prior switch for this method
             if (event.language == "kotlin" && event.kind == "when-branch" && methodKey !in methodsWithKotlinSwitch) {
                 val synthetic = ScanEvent("kotlin", event.fqcn, event.method, event.signature, "switch", event.line, null)
                 rules += buildKotlinSwitchRule(synthetic, helper)
-                // Mark as present to avoid duplicating for subsequent branches
-                // Note: we don't mutate methodsWithKotlinSwitch (immutable set); duplication is avoided because we add only once per first branch encountered in iteration order
-                // relying on stable sort above.
             }
-            rules += toRules(event, helper)
-        }
-
-        // Fallback: ensure Java methods always have entry/exit rules even if no AST events were detected
-        if (includeJava.getOrElse(false)) {
-            val regex = JavaRegexParser()
-            val seenJavaMethods = seenMethods.asSequence()
-                .filter { it.startsWith("java:") }
-                .mapNotNull { key ->
-                    val parts = key.split(':', limit = 4)
-                    if (parts.size == 4) "${parts[1]}.${parts[2]}" else null
-                }
-                .toSet()
-            javaSourceFiles.forEach { file ->
-                if (SourceFileGuards.shouldSkipLargeFile(file, limit) { msg: String -> logger.debug(msg) }) return@forEach
-                val text = file.readText()
-                val missingMethods = findMissingJavaMethods(text, seenJavaMethods)
-                if (missingMethods.isEmpty()) return@forEach
-                try {
-                    val fileRules =
-                        regex.scan(text, helper, legacyPrefix, includeEntryExit, maxStringLength.getOrElse(0))
-                    rules += fileRules.filter { rule ->
-                        val methodKey = extractMethodKey(rule) ?: extractEntryExitMethod(rule)
-                        methodKey == null || methodKey in missingMethods
-                    }
-                } catch (e: StackOverflowError) {
-                    // English comments only inside code:
-                    // Fail-safe: Regex fallback occasionally hits catastrophic backtracking.
-                    // We log and skip this file to keep the task alive.
-                    logger.error("Regex fallback StackOverflow in file: ${file.absolutePath}. Skipping this file.", e)
-                    fileLog("ERROR", "Regex fallback StackOverflow: ${file.absolutePath}")
-                }
+            val converted = toRules(event, helper, javaIfsWithElse)
+            if (signature == BtmRule.ANY_SIGNATURE) {
+                rules += converted
+            } else {
+                converted.mapTo(rules) { it.withSignature(signature) }
             }
         }
+        return rules
+    }
 
-        if (rules.isEmpty()) {
-            ShardedWriter(
-                outputDirectory,
-                shardCount,
-                gzip,
-                prefix,
-                rotateMaxBytesValue,
-                rotateIntervalSecondsValue,
-                flushThresholdValue,
-                flushIntervalValue,
-                threadSafeValue
-            ).use { writer ->
-                writer.writeHeader(header)
+    // Fallback: ensure Java methods always have entry/exit rules even if no AST events were detected.
+    // Runs on a scan worker thread, see scanAstFile.
+    private fun javaFallbackRules(
+        path: String,
+        missingMethods: Set<String>,
+        text: String?,
+        parser: JavaRegexParser,
+        helper: String,
+        legacyPrefix: String?,
+        includeEntryExit: Boolean,
+        maxLen: Int,
+        budget: ScanBudget
+    ): List<BtmRule> {
+        if (text == null || missingMethods.isEmpty()) return emptyList()
+        return try {
+            parser.scanRules(text, helper, legacyPrefix, includeEntryExit, maxLen, budget.deadline()).filter { rule ->
+                rule.qualifiedMethod() in missingMethods
             }
-            return
+        } catch (e: ScanDeadline.ScanTimeoutException) {
+            budget.skipped(path, PASS_JAVA_REGEX, e, warnSink())
+            emptyList()
+        } catch (e: StackOverflowError) {
+            // English comments only inside code:
+            // Fail-safe: Regex fallback occasionally hits catastrophic backtracking.
+            // We log and skip this file to keep the task alive.
+            logger.error("Regex fallback StackOverflow in file: $path. Skipping this file.", e)
+            fileLog("ERROR", "Regex fallback StackOverflow: $path")
+            emptyList()
         }
+    }
 
-        ShardedWriter(
-            outputDirectory,
-            shardCount,
-            gzip,
-            prefix,
-            rotateMaxBytesValue,
-            rotateIntervalSecondsValue,
-            flushThresholdValue,
-            flushIntervalValue,
-            threadSafeValue
-        ).use { writer ->
-            writer.writeHeader(header)
-            dispatchRules(rules, allPkgPrefixes, minBranches, shardCount, writer)
+    private fun warnSink(): (String) -> Unit = { message ->
+        if (shouldLog(LogLevel.WARN)) {
+            logger.warn(message)
+            fileLog("WARN", message)
         }
     }
 
-    private fun toRules(event: ScanEvent, helper: String): List<String> {
+    // With fuseDecisions the true event of each if/is pair yields the fused rule and the false event none.
+    private fun toRules(event: ScanEvent, helper: String, javaIfsWithElse: Set<String>): List<BtmRule> {
+        val fused = fuseDecisions.getOrElse(false)
         return when (event.language) {
             "java" -> when (event.kind) {
-                "if-true" -> listOf(buildJavaIfRule(event, helper, true))
-                "if-false" -> listOf(buildJavaIfRule(event, helper, false))
+                "if-true" -> listOf(
+                    if (fused && javaIfKey(event) in javaIfsWithElse) buildJavaDecisionRule(event, helper)
+                    else buildJavaIfRule(event, helper, true)
+                )
+                "if-false" -> if (fused) emptyList() else listOf(buildJavaIfRule(event, helper, false))
                 "switch" -> listOf(buildJavaSwitchRule(event, helper))
                 "switch-case" -> listOf(buildJavaCaseRule(event, helper))
                 else -> emptyList()
             }
             "kotlin" -> when (event.kind) {
-                "if-true" -> listOf(buildKotlinIfRule(event, helper, true))
-                "if-false" -> listOf(buildKotlinIfRule(event, helper, false))
+                "if-true" -> listOf(if (fused) buildKotlinDecisionRule(event, helper, RuleKind.IF) else buildKotlinIfRule(event, helper, true))
+                "if-false" -> if (fused) emptyList() else listOf(buildKotlinIfRule(event, helper, false))
+                "is-true" -> listOf(
+                    if (fused) buildKotlinDecisionRule(event, helper, RuleKind.IS)
+                    else buildKotlinIfRule(event, helper, true, RuleKind.IS_TRUE)
+                )
+                "is-false" -> if (fused) emptyList() else listOf(buildKotlinIfRule(event, helper, false, RuleKind.IS_FALSE))
                 "switch" -> listOf(buildKotlinSwitchRule(event, helper))
                 "when-branch" -> listOf(buildKotlinCaseRule(event, helper))
-                "write" -> listOf(buildKotlinWriteRule(event, helper))
+                "write" -> listOfNotNull(buildKotlinWriteRule(event, helper))
                 else -> emptyList()
             }
             else -> emptyList()
         }
     }
 
-    private fun buildJavaIfRule(event: ScanEvent, helper: String, positive: Boolean): String {
+    // The if-false event of a Java if repeats the line and condition text of its if-true event.
+    private fun javaIfKey(event: ScanEvent): String =
+        "${event.fqcn}:${event.method}:${event.signature}:${event.line}:${event.conditionText}"
+
+    private fun buildJavaIfRule(event: ScanEvent, helper: String, positive: Boolean): BtmRule {
         val conditionText = event.conditionText ?: "true"
         val escaped = escape(conditionText)
-        val check = if (positive) "IF (${conditionText})" else "IF (!(${conditionText}))"
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:${if (positive) "if-true" else "if-false"}",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            check,
-            "DO iff(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\", ${positive})",
-            "ENDRULE"
-        ).joinToString("\n")
+        return lineRule(
+            if (positive) RuleKind.IF_TRUE else RuleKind.IF_FALSE,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            if (positive) conditionText else "!(${conditionText})",
+            listOf("DO iff(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\", ${positive})")
+        )
+    }
+
+    private fun buildJavaDecisionRule(event: ScanEvent, helper: String): BtmRule {
+        val conditionText = event.conditionText ?: "true"
+        return BtmRule.decision(
+            RuleKind.IF,
+            helper,
+            event.fqcn,
+            event.method,
+            event.line,
+            conditionText,
+            listOf(decisionAction(event.fqcn, event.method, event.line, escape(conditionText)))
+        )
     }
 
-    private fun buildJavaSwitchRule(event: ScanEvent, helper: String): String {
+    private fun buildJavaSwitchRule(event: ScanEvent, helper: String): BtmRule {
         val selector = escape(event.conditionText ?: "")
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:when",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            "DO sw(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${selector}\")",
-            "ENDRULE"
-        ).joinToString("\n")
+        return lineRule(
+            RuleKind.SWITCH,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            null,
+            listOf("DO sw(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${selector}\")")
+        )
     }
 
-    private fun buildJavaCaseRule(event: ScanEvent, helper: String): String {
+    private fun buildJavaCaseRule(event: ScanEvent, helper: String): BtmRule {
         val label = event.conditionText ?: "default"
         val escaped = escape(label)
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:case",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            "DO kase(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\")",
-            "ENDRULE"
-        ).joinToString("\n")
+        return lineRule(
+            RuleKind.CASE,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            null,
+            listOf("DO kase(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\")")
+        )
     }
 
-    private fun buildKotlinIfRule(event: ScanEvent, helper: String, positive: Boolean): String {
+    private fun buildKotlinIfRule(
+        event: ScanEvent,
+        helper: String,
+        positive: Boolean,
+        kind: RuleKind = if (positive) RuleKind.IF_TRUE else RuleKind.IF_FALSE
+    ): BtmRule {
         val conditionText = event.conditionText ?: "true"
         val baseStrategy = conditionStrategyFactory.from(conditionText)
         val ruleId = RuleIdUtil.stableRuleId(event.fqcn, event.method, event.line, conditionText)
@@ -753,128 +978,131 @@ abstract class GenerateBtmTask : DefaultTask() {
         val rendered = decorated.toBytemanIf()
         val registration = maybeBuildRegistrationBlock(ruleId, conditionText, rendered)
         val escaped = escape(conditionText)
-        val lines = mutableListOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:${if (positive) "if-true" else "if-false"}",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            if (positive) "IF (${rendered})" else "IF (!(${rendered}))"
+        val actions = mutableListOf<String>()
+        registration?.let { actions.addAll(it) }
+        actions += "DO iff(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\", ${positive})"
+        return lineRule(
+            kind,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            if (positive) rendered else "!(${rendered})",
+            actions
         )
-        registration?.let { lines.addAll(it) }
-        lines += "DO iff(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escaped}\", ${positive})"
-        lines += "ENDRULE"
-        return lines.joinToString("\n")
     }
 
-    private fun buildKotlinSwitchRule(event: ScanEvent, helper: String): String {
+    private fun buildKotlinDecisionRule(event: ScanEvent, helper: String, kind: RuleKind): BtmRule {
+        val conditionText = event.conditionText ?: "true"
+        val ruleId = RuleIdUtil.stableRuleId(event.fqcn, event.method, event.line, conditionText)
+        val rendered = decorateCondition(conditionStrategyFactory.from(conditionText), ruleId).toBytemanIf()
+        val actions = mutableListOf<String>()
+        maybeBuildRegistrationBlock(ruleId, conditionText, rendered)?.let { actions.addAll(it) }
+        actions += decisionAction(event.fqcn, event.method, event.line, escape(conditionText))
+        return BtmRule.decision(kind, helper, event.fqcn, event.method, event.line, rendered, actions)
+    }
+
+    // Passes the outcome bound by a BtmRule.decision rule to the helper.
+    private fun decisionAction(className: String, methodName: String, line: Int, escapedCondition: String): String =
+        "DO iff(\"${className}\",\"${methodName}\",${line},\"${escapedCondition}\", ${BtmRule.DECISION_VARIABLE})"
+
+    private fun buildKotlinSwitchRule(event: ScanEvent, helper: String): BtmRule {
         val raw = event.conditionText?.takeIf { it.isNotBlank() } ?: SUBJECTLESS_WHEN_PLACEHOLDER
         val selector = escape(raw)
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:when",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            "DO sw(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${selector}\")",
-            "ENDRULE"
-        ).joinToString("\n")
+        return lineRule(
+            RuleKind.SWITCH,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            null,
+            listOf("DO sw(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${selector}\")")
+        )
     }
 
-    private fun buildKotlinCaseRule(event: ScanEvent, helper: String): String {
+    private fun buildKotlinCaseRule(event: ScanEvent, helper: String): BtmRule {
         val label = escape(event.conditionText ?: "else")
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:case",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${event.line}",
-            "DO kase(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${label}\")",
-            "ENDRULE"
-        ).joinToString("\n")
+        return lineRule(
+            RuleKind.CASE,
+            event.fqcn,
+            event.method,
+            helper,
+            event.line,
+            null,
+            listOf("DO kase(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${label}\")")
+        )
     }
 
-    private fun buildKotlinWriteRule(event: ScanEvent, helper: String): String {
-        val name = event.conditionText ?: return ""
-        val escapedVar = escape(name)
-        return listOf(
-            "RULE ${event.fqcn}.${event.method}:${event.line}:write-${name}",
-            "CLASS ${event.fqcn}",
-            "METHOD ${event.method}(..)",
-            "HELPER ${helper}",
-            "AFTER WRITE ${'$'}$name",
-            "DO writeVar(\"${event.fqcn}\",\"${event.method}\",${event.line},\"${escapedVar}\", ${'$'}$name)",
-            "ENDRULE"
-        ).joinToString("\n")
+    private fun buildKotlinWriteRule(event: ScanEvent, helper: String): BtmRule? {
+        val name = event.conditionText ?: return null
+        return writeRule(helper, event.fqcn, event.method, event.line, name)
     }
 
+    private fun lineRule(
+        kind: RuleKind,
+        className: String,
+        methodName: String,
+        helper: String,
+        line: Int,
+        condition: String?,
+        actions: List<String>
+    ): BtmRule = BtmRule(kind, className, methodName, BtmRule.ANY_SIGNATURE, helper, line, null, null, condition, actions)
+
+    private fun writeRule(helper: String, className: String, methodName: String, line: Int, name: String): BtmRule =
+        BtmRule(
+            RuleKind.WRITE,
+            className,
+            methodName,
+            BtmRule.ANY_SIGNATURE,
+            helper,
+            line,
+            name,
+            null,
+            null,
+            listOf("DO writeVar(\"${className}\",\"${methodName}\",${line},\"${escape(name)}\", ${'$'}$name)")
+        )
+
+    // [emit] receives the rule text in the renderer's buffer, valid only until it returns.
     private fun dispatchRules(
-        rules: List<String>,
-        prefixes: List<String>,
+        rules: List<BtmRule>,
+        prefixes: PackagePrefixFilter,
         minBranches: Int,
         shardCount: Int,
-        writer: ShardedWriter
+        renderer: RuleRenderer,
+        emit: (Int, CharSequence) -> Unit
     ) {
         if (rules.isEmpty()) return
         if (minBranches <= 0) {
             rules.forEach { rule ->
                 if (passesPrefixFilter(rule, prefixes)) {
-                    val shardKey = computeShardKey(rule)
-                    val shard = HashUtil.stableShard(shardKey, shardCount)
-                    writer.append(shard, rule)
+                    emit(HashUtil.stableShard(rule.shardKeyHash(), shardCount), renderer.render(rule))
                 }
             }
             return
         }
 
-        val grouped = rules.groupBy { extractMethodKey(it) }
+        val grouped = rules.groupBy { it.methodKey() }
         grouped.forEach { (methodKey, methodRules) ->
-            if (methodKey == null || hasRequiredBranches(methodRules, minBranches)) {
+            if (methodKey == null || methodRules.sumOf { it.kind().branches() } >= minBranches) {
                 val first = methodRules.firstOrNull() ?: return@forEach
                 if (!passesPrefixFilter(first, prefixes)) return@forEach
                 methodRules.forEach { rule ->
-                    val shardKey = computeShardKey(rule)
-                    val shard = HashUtil.stableShard(shardKey, shardCount)
-                    writer.append(shard, rule)
+                    emit(HashUtil.stableShard(rule.shardKeyHash(), shardCount), renderer.render(rule))
                 }
             }
         }
     }
 
-    private fun passesPrefixFilter(rule: String, prefixes: List<String>): Boolean {
-        if (prefixes.isEmpty()) return true
-        val cls = extractClassName(rule) ?: return false
-        return prefixes.any { cls.startsWith(it) }
-    }
-
-    private fun hasRequiredBranches(rules: List<String>, minBranches: Int): Boolean {
-        if (minBranches <= 0) return true
-        val branchCount = rules.count { rule ->
-            rule.contains(":if-") || rule.contains(":is-") || rule.contains(":when") || rule.contains(":case")
-        }
-        return branchCount >= minBranches
-    }
-
-    private fun computeShardKey(rule: String): String {
-        val className = extractClassName(rule) ?: ""
-        val method = Regex("(?m)^\\s*METHOD\\s+([A-Za-z0-9_]+)\\(").find(rule)?.groupValues?.getOrNull(1) ?: ""
-        val line = Regex("(?m)^\\s*AT\\s+LINE\\s+(\\d+)").find(rule)?.groupValues?.getOrNull(1) ?: "0"
-        return "$className#$method:$line"
-    }
+    private fun passesPrefixFilter(rule: BtmRule, prefixes: PackagePrefixFilter): Boolean =
+        prefixes.accepts(rule.className)
 
-    private fun createEnvironment(): EnvironmentHolder {
-        val disposable: Disposable = Disposer.newDisposable("btmgen")
-        val configuration = CompilerConfiguration().apply {
-            put(CommonConfigurationKeys.MODULE_NAME, "btmgen")
-            put(JVMConfigurationKeys.JDK_HOME, File(System.getProperty("java.home")))
-            put(CommonConfigurationKeys.MESSAGE_COLLECTOR_KEY, SilentMessageCollector)
+    // Leases from the shared build service; tasks registered without the plugin fall back to a private pool.
+    private fun <T> withPsiEnvironment(action: (KotlinPsiEnvironmentPool.Lease) -> T): T {
+        val service = kotlinPsiEnvironment.orNull
+        if (service != null) {
+            return service.lease().use(action)
         }
-        val environment = KotlinCoreEnvironment.createForProduction(
-            disposable,
-            configuration,
-            EnvironmentConfigFiles.JVM_CONFIG_FILES
-        )
-        return EnvironmentHolder(environment, disposable)
+        return KotlinPsiEnvironmentPool().use { pool -> pool.lease().use(action) }
     }
 
     private fun processKotlinFile(
@@ -884,7 +1112,7 @@ abstract class GenerateBtmTask : DefaultTask() {
         prefix: String?,
         tracked: Set<String>,
         includeEntryExit: Boolean
-    ): List<String> {
+    ): List<BtmRule> {
         val lineIndex = LineIndex(text)
         // Fast path: if a package prefix is configured and the file's package doesn't match it,
         // we can skip traversing the PSI entirely for this file.
@@ -914,16 +1142,16 @@ abstract class GenerateBtmTask : DefaultTask() {
         prefix: String?,
         tracked: Set<String>,
         includeEntryExit: Boolean
-    ): List<String> {
+    ): List<BtmRule> {
         val methodName = function.name ?: return emptyList()
         val className = resolveBinaryClassName(function) ?: return emptyList()
         if (prefix != null && !className.startsWith(prefix)) {
             return emptyList()
         }
-        val rules = mutableListOf<String>()
+        val rules = mutableListOf<BtmRule>()
         if (includeEntryExit) {
-            rules += buildEntryRule(helper, className, methodName)
-            rules += buildExitRule(helper, className, methodName)
+            rules += BtmRule.entry(helper, className, methodName)
+            rules += BtmRule.exit(helper, className, methodName)
         }
         val body = function.bodyExpression ?: return rules
         val context = KotlinFunctionContext(helper, className, methodName, lineIndex, tracked)
@@ -951,57 +1179,7 @@ abstract class GenerateBtmTask : DefaultTask() {
         return rules
     }
 
-    private fun resolveBinaryClassName(function: KtNamedFunction): String? {
-        val classOrObject = function.containingClassOrObject
-        val packageName = function.containingKtFile.packageFqName.takeIf { !it.isRoot }?.asString().orEmpty()
-        return if (classOrObject == null) {
-            val fileName = function.containingKtFile.name.substringBeforeLast('.') + "Kt"
-            if (packageName.isEmpty()) fileName else "$packageName.$fileName"
-        } else {
-            val nameSegments = mutableListOf<String>()
-            var current: KtClassOrObject? = classOrObject
-            while (current != null) {
-                val simpleName = when (current) {
-                    is KtObjectDeclaration -> {
-                        when {
-                            current.name != null -> current.name!!
-                            current.isCompanion() -> "Companion"
-                            else -> return null
-                        }
-                    }
-                    else -> current.name ?: return null
-                }
-                nameSegments.add(simpleName)
-                current = current.containingClassOrObject
-            }
-            val binaryName = nameSegments.asReversed().joinToString("$")
-            if (packageName.isEmpty()) binaryName else "$packageName.$binaryName"
-        }
-    }
-
-    private fun buildEntryRule(helper: String, className: String, methodName: String): String =
-        """
-        RULE enter@${className}.${methodName}
-        CLASS ${className}
-        METHOD ${methodName}(..)
-        HELPER ${helper}
-        AT ENTRY
-        DO enter("${className}","${methodName}", ${'$'}LINE)
-        ENDRULE
-        """.trimIndent()
-
-    private fun buildExitRule(helper: String, className: String, methodName: String): String =
-        """
-        RULE exit@${className}.${methodName}
-        CLASS ${className}
-        METHOD ${methodName}(..)
-        HELPER ${helper}
-        AT EXIT
-        DO exit("${className}","${methodName}", ${'$'}LINE)
-        ENDRULE
-        """.trimIndent()
-
-    private fun buildIfRules(context: KotlinFunctionContext, expression: KtIfExpression): List<String> {
+    private fun buildIfRules(context: KotlinFunctionContext, expression: KtIfExpression): List<BtmRule> {
         val condition = expression.condition ?: return emptyList()
         val line = context.lineIndex.lineAt(expression.startOffset)
         val conditionText = escape(condition.text)
@@ -1013,78 +1191,59 @@ abstract class GenerateBtmTask : DefaultTask() {
         val decoratedStrategy = decorateCondition(baseStrategy, ruleId)
         val renderedCondition = decoratedStrategy.toBytemanIf()
         val registration = maybeBuildRegistrationBlock(ruleId, condition.text, renderedCondition)
-        val trueLines = mutableListOf(
-            "RULE ${className}.${methodName}:${line}:if-true",
-            "CLASS ${className}",
-            "METHOD ${methodName}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${line}",
-            "IF (${renderedCondition})"
-        )
-        registration?.let { trueLines.addAll(it) }
-        trueLines += "DO iff(\"${className}\",\"${methodName}\",${line},\"${conditionText}\", true)"
-        trueLines += "ENDRULE"
-
-        val falseLines = mutableListOf(
-            "RULE ${className}.${methodName}:${line}:if-false",
-            "CLASS ${className}",
-            "METHOD ${methodName}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${line}",
-            "IF (!(${renderedCondition}))"
-        )
-        registration?.let { falseLines.addAll(it) }
-        falseLines += "DO iff(\"${className}\",\"${methodName}\",${line},\"${conditionText}\", false)"
-        falseLines += "ENDRULE"
+        if (fuseDecisions.getOrElse(false)) {
+            val actions = registration.orEmpty() + decisionAction(className, methodName, line, conditionText)
+            return listOf(BtmRule.decision(RuleKind.IF, helper, className, methodName, line, renderedCondition, actions))
+        }
+        val trueActions = mutableListOf<String>()
+        registration?.let { trueActions.addAll(it) }
+        trueActions += "DO iff(\"${className}\",\"${methodName}\",${line},\"${conditionText}\", true)"
+
+        val falseActions = mutableListOf<String>()
+        registration?.let { falseActions.addAll(it) }
+        falseActions += "DO iff(\"${className}\",\"${methodName}\",${line},\"${conditionText}\", false)"
 
-        return listOf(trueLines.joinToString("\n"), falseLines.joinToString("\n"))
+        return listOf(
+            lineRule(RuleKind.IF_TRUE, className, methodName, helper, line, renderedCondition, trueActions),
+            lineRule(RuleKind.IF_FALSE, className, methodName, helper, line, "!(${renderedCondition})", falseActions)
+        )
     }
 
-    private fun buildWhenRules(context: KotlinFunctionContext, expression: KtWhenExpression): List<String> {
-        val rules = mutableListOf<String>()
+    private fun buildWhenRules(context: KotlinFunctionContext, expression: KtWhenExpression): List<BtmRule> {
+        val rules = mutableListOf<BtmRule>()
         val line = context.lineIndex.lineAt(expression.startOffset)
         val className = context.className
         val methodName = context.methodName
         val helper = context.helperFqn
         val subject = expression.subjectExpression?.text
         val selectorText = subject ?: SUBJECTLESS_WHEN_PLACEHOLDER
-        val whenRule = """
-            RULE ${className}.${methodName}:${line}:when
-            CLASS ${className}
-            METHOD ${methodName}(..)
-            HELPER ${helper}
-            AT LINE ${line}
-            DO sw("${className}","${methodName}",${line},"${escape(selectorText)}")
-            ENDRULE
-        """.trimIndent()
-        rules += whenRule
+        rules += lineRule(
+            RuleKind.SWITCH,
+            className,
+            methodName,
+            helper,
+            line,
+            null,
+            listOf("DO sw(\"${className}\",\"${methodName}\",${line},\"${escape(selectorText)}\")")
+        )
         expression.entries.forEach { entry ->
             val label = buildWhenLabel(entry)
             val escapedLabel = escape(label)
             val caseLine = context.lineIndex.lineAt(entry.startOffset)
-            val caseRule = """
-                RULE ${className}.${methodName}:${caseLine}:case
-                CLASS ${className}
-                METHOD ${methodName}(..)
-                HELPER ${helper}
-                AT LINE ${caseLine}
-                DO kase("${className}","${methodName}",${caseLine},"${escapedLabel}")
-                ENDRULE
-            """.trimIndent()
-            rules += caseRule
+            rules += lineRule(
+                RuleKind.CASE,
+                className,
+                methodName,
+                helper,
+                caseLine,
+                null,
+                listOf("DO kase(\"${className}\",\"${methodName}\",${caseLine},\"${escapedLabel}\")")
+            )
         }
         return rules
     }
 
-    private fun buildWhenLabel(entry: KtWhenEntry): String {
-        if (entry.isElse) {
-            return "else"
-        }
-        val texts = entry.conditions.map { it.text.trim() }
-        return texts.joinToString(" | ")
-    }
-
-    private fun buildIsRules(context: KotlinFunctionContext, expression: KtIsExpression): List<String> {
+    private fun buildIsRules(context: KotlinFunctionContext, expression: KtIsExpression): List<BtmRule> {
         val line = context.lineIndex.lineAt(expression.startOffset)
         val conditionText = expression.text
         val className = context.className
@@ -1096,34 +1255,25 @@ abstract class GenerateBtmTask : DefaultTask() {
         val renderedCondition = decoratedStrategy.toBytemanIf()
         val escaped = escape(conditionText)
         val registration = maybeBuildRegistrationBlock(ruleId, conditionText, renderedCondition)
-        val trueLines = mutableListOf(
-            "RULE ${className}.${methodName}:${line}:is-true",
-            "CLASS ${className}",
-            "METHOD ${methodName}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${line}",
-            "IF (${renderedCondition})"
-        )
-        registration?.let { trueLines.addAll(it) }
-        trueLines += "DO iff(\"${className}\",\"${methodName}\",${line},\"${escaped}\", true)"
-        trueLines += "ENDRULE"
-
-        val falseLines = mutableListOf(
-            "RULE ${className}.${methodName}:${line}:is-false",
-            "CLASS ${className}",
-            "METHOD ${methodName}(..)",
-            "HELPER ${helper}",
-            "AT LINE ${line}",
-            "IF (!(${renderedCondition}))"
-        )
-        registration?.let { falseLines.addAll(it) }
-        falseLines += "DO iff(\"${className}\",\"${methodName}\",${line},\"${escaped}\", false)"
-        falseLines += "ENDRULE"
+        if (fuseDecisions.getOrElse(false)) {
+            val actions = registration.orEmpty() + decisionAction(className, methodName, line, escaped)
+            return listOf(BtmRule.decision(RuleKind.IS, helper, className, methodName, line, renderedCondition, actions))
+        }
+        val trueActions = mutableListOf<String>()
+        registration?.let { trueActions.addAll(it) }
+        trueActions += "DO iff(\"${className}\",\"${methodName}\",${line},\"${escaped}\", true)"
+
+        val falseActions = mutableListOf<String>()
+        registration?.let { falseActions.addAll(it) }
+        falseActions += "DO iff(\"${className}\",\"${methodName}\",${line},\"${escaped}\", false)"
 
-        return listOf(trueLines.joinToString("\n"), falseLines.joinToString("\n"))
+        return listOf(
+            lineRule(RuleKind.IS_TRUE, className, methodName, helper, line, renderedCondition, trueActions),
+            lineRule(RuleKind.IS_FALSE, className, methodName, helper, line, "!(${renderedCondition})", falseActions)
+        )
     }
 
-    private fun buildWriteRule(context: KotlinFunctionContext, expression: KtBinaryExpression): List<String> {
+    private fun buildWriteRule(context: KotlinFunctionContext, expression: KtBinaryExpression): List<BtmRule> {
         if (expression.operationToken != KtTokens.EQ) {
             return emptyList()
         }
@@ -1133,20 +1283,7 @@ abstract class GenerateBtmTask : DefaultTask() {
             return emptyList()
         }
         val line = context.lineIndex.lineAt(expression.startOffset)
-        val className = context.className
-        val methodName = context.methodName
-        val helper = context.helperFqn
-        val escapedVar = escape(name)
-        val rule = """
-            RULE ${className}.${methodName}:${line}:write-${name}
-            CLASS ${className}
-            METHOD ${methodName}(..)
-            HELPER ${helper}
-            AFTER WRITE ${'$'}$name
-            DO writeVar("${className}","${methodName}",${line},"${escapedVar}", ${'$'}$name)
-            ENDRULE
-        """.trimIndent()
-        return listOf(rule)
+        return listOf(writeRule(context.helperFqn, context.className, context.methodName, line, name))
     }
 
     private fun decorateCondition(base: ConditionStrategy, ruleId: String): ConditionStrategy {
@@ -1179,18 +1316,13 @@ abstract class GenerateBtmTask : DefaultTask() {
         )
     }
 
+    private fun escape(value: String): String = BytemanStrings.escape(value, maxStringLength.getOrElse(0))
 
-
-    private fun escape(value: String): String {
-        val limit = maxStringLength.getOrElse(0)
-        val truncated = if (limit > 0 && value.length > limit) value.take(limit) + "…" else value
-        return truncated
-            .replace("\\", "\\\\")
-            .replace("\"", "\\\"")
-            .replace("\n", "\\n")
-            .replace("\r", "\\r")
-            .replace("\t", "\\t")
-    }
+    private data class ScannedFile(
+        val file: File,
+        val events: List<ScanEvent>,
+        val fallbackRules: List<BtmRule>
+    )
 
     private data class KotlinFunctionContext(
         val helperFqn: String,
@@ -1199,61 +1331,4 @@ abstract class GenerateBtmTask : DefaultTask() {
         val lineIndex: LineIndex,
         val trackedVars: Set<String>
     )
-
-    private data class EnvironmentHolder(
-        val environment: KotlinCoreEnvironment,
-        val disposable: Disposable
-    )
-
-    private fun KtNamedFunction.isLocalFunction(): Boolean {
-        val parent = this.parent
-        return parent is KtBlockExpression || parent is KtWhenEntry
-    }
-
-    private class LineIndex(text: String) {
-        private val lineStarts: IntArray
-
-        init {
-            val starts = mutableListOf(0)
-            text.forEachIndexed { index, c ->
-                if (c == '\n') {
-                    starts.add(index + 1)
-                }
-            }
-            lineStarts = starts.toIntArray()
-        }
-
-        fun lineAt(offset: Int): Int {
-            if (lineStarts.isEmpty()) {
-                return 1
-            }
-            var low = 0
-            var high = lineStarts.size - 1
-            while (low <= high) {
-                val mid = (low + high) ushr 1
-                val start = lineStarts[mid]
-                val next = if (mid + 1 < lineStarts.size) lineStarts[mid + 1] else Int.MAX_VALUE
-                when {
-                    offset < start -> high = mid - 1
-                    offset >= next -> low = mid + 1
-                    else -> return mid + 1
-                }
-            }
-            return lineStarts.size
-        }
-    }
-
-    private object SilentMessageCollector : MessageCollector {
-        override fun clear() {
-        }
-
-        override fun hasErrors(): Boolean = false
-
-        override fun report(
-            severity: CompilerMessageSeverity,
-            message: String,
-            location: CompilerMessageSourceLocation?
-        ) {
-        }
-    }
 }
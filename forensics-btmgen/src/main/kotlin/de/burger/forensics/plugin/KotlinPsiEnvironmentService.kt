@@ -0,0 +1,109 @@
+package de.burger.forensics.plugin
+
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSourceLocation
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.com.intellij.openapi.Disposable
+import org.jetbrains.kotlin.com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.psi.KtPsiFactory
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Build-scoped owner of the Kotlin PSI environments used to parse sources. Creating a
+ * [KotlinCoreEnvironment] costs seconds and hundreds of MB, so every [GenerateBtmTask] of the build
+ * leases a pooled one instead; Gradle closes the service, and thereby disposes the pool, when the build
+ * finishes. Registered by [BtmGenPlugin].
+ */
+abstract class KotlinPsiEnvironmentService : BuildService<BuildServiceParameters.None>, AutoCloseable {
+    private val pool = KotlinPsiEnvironmentPool()
+
+    /** Leases an environment for exclusive use by the calling thread until the lease is closed. */
+    fun lease(): KotlinPsiEnvironmentPool.Lease = pool.lease()
+
+    override fun close() {
+        pool.close()
+    }
+
+    companion object {
+        const val NAME: String = "forensicsKotlinPsiEnvironment"
+    }
+}
+
+/**
+ * Pool of reusable Kotlin PSI environments. An environment is not shared between threads: each lease
+ * hands out an idle environment or creates a new one, so the pool grows to the peak number of
+ * concurrent leases and never beyond.
+ */
+class KotlinPsiEnvironmentPool : AutoCloseable {
+    private val idle = ConcurrentLinkedQueue<Lease>()
+    private val all = ConcurrentLinkedQueue<Lease>()
+
+    @Volatile
+    private var closed = false
+
+    fun lease(): Lease {
+        check(!closed) { "Kotlin PSI environment pool is closed" }
+        return idle.poll() ?: createLease().also { all += it }
+    }
+
+    override fun close() {
+        closed = true
+        idle.clear()
+        while (true) {
+            Disposer.dispose(all.poll()?.disposable ?: break)
+        }
+    }
+
+    private fun createLease(): Lease {
+        val disposable: Disposable = Disposer.newDisposable("btmgen")
+        val configuration = CompilerConfiguration().apply {
+            put(CommonConfigurationKeys.MODULE_NAME, "btmgen")
+            put(JVMConfigurationKeys.JDK_HOME, File(System.getProperty("java.home")))
+            put(CommonConfigurationKeys.MESSAGE_COLLECTOR_KEY, SilentMessageCollector)
+        }
+        val environment = KotlinCoreEnvironment.createForProduction(
+            disposable,
+            configuration,
+            EnvironmentConfigFiles.JVM_CONFIG_FILES
+        )
+        return Lease(environment, disposable)
+    }
+
+    inner class Lease internal constructor(
+        val environment: KotlinCoreEnvironment,
+        internal val disposable: Disposable
+    ) : AutoCloseable {
+        val psiFactory: KtPsiFactory = KtPsiFactory(environment.project, false)
+
+        /** Returns the environment to the pool; it is disposed right away if the pool is already closed. */
+        override fun close() {
+            if (closed) {
+                if (all.remove(this)) Disposer.dispose(disposable)
+            } else {
+                idle += this
+            }
+        }
+    }
+
+    private object SilentMessageCollector : MessageCollector {
+        override fun clear() {
+        }
+
+        override fun hasErrors(): Boolean = false
+
+        override fun report(
+            severity: CompilerMessageSeverity,
+            message: String,
+            location: CompilerMessageSourceLocation?
+        ) {
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package de.burger.forensics.plugin
+
+import de.burger.forensics.plugin.scan.PackagePrefixFilter
+import de.burger.forensics.plugin.scan.PackageSniffer
+import de.burger.forensics.plugin.scan.ScanEvent
+import de.burger.forensics.plugin.scan.SourceScanner
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.*
+import org.jetbrains.kotlin.psi.psiUtil.containingClassOrObject
+import org.jetbrains.kotlin.psi.psiUtil.startOffset
+import java.io.IOException
+import java.nio.file.FileVisitOption
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.EnumSet
+
+/**
+ * Kotlin [SourceScanner] backed by the compiler's PSI: the accuracy of the legacy PSI visitor, as
+ * [ScanEvent]s for the AST path. Safe to call from several scan threads at once: a scan leases its own
+ * PSI environment from [leases] for as long as it parses, so every thread works with a separate
+ * environment and [KtPsiFactory]. A pool hands the environments out again, so their number stays at
+ * the number of threads scanning at the same time.
+ */
+class KotlinPsiScanner(private val leases: () -> KotlinPsiEnvironmentPool.Lease) : SourceScanner {
+
+    override fun scan(root: Path, includePkgs: List<String>, excludePkgs: List<String>): List<ScanEvent> {
+        val out = mutableListOf<ScanEvent>()
+        val filter = PackagePrefixFilter.of(includePkgs, excludePkgs)
+        var lease: KotlinPsiEnvironmentPool.Lease? = null
+        try {
+            // Walk filesystem with bounded depth and skip directory symlinks to avoid pathological recursion.
+            Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption::class.java), 64, object : SimpleFileVisitor<Path>() {
+                override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult =
+                    if (Files.isSymbolicLink(dir)) FileVisitResult.SKIP_SUBTREE else FileVisitResult.CONTINUE
+
+                override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+                    if (file.fileName.toString().endsWith(".kt")) {
+                        // Leased on the first Kotlin file only: the facade also hands us Java files.
+                        val current = lease ?: leases().also { lease = it }
+                        scanFile(current, file, filter, out)
+                    }
+                    return FileVisitResult.CONTINUE
+                }
+            })
+        } catch (ignored: IOException) {
+            // Ignore traversal failures for now.
+        } finally {
+            lease?.close()
+        }
+        return out
+    }
+
+    private fun scanFile(
+        lease: KotlinPsiEnvironmentPool.Lease,
+        file: Path,
+        filter: PackagePrefixFilter,
+        out: MutableList<ScanEvent>
+    ) {
+        // Reject files outside the packages from their header, before parsing.
+        val sniffed = PackageSniffer.sniff(file)
+        if (sniffed != null && !filter.accepts(sniffed)) return
+        val text = try {
+            // PSI only accepts '\n' line separators; converting them keeps the line numbers.
+            Files.readString(file).replace("\r\n", "\n").replace('\r', '\n')
+        } catch (e: IOException) {
+            return
+        }
+        val ktFile = lease.psiFactory.createFile(file.fileName.toString(), text)
+        val pkg = ktFile.packageFqName.takeIf { !it.isRoot }?.asString().orEmpty()
+        if (!filter.accepts(pkg)) return
+        val lineIndex = LineIndex(text)
+        ktFile.accept(object : KtTreeVisitorVoid() {
+            override fun visitNamedFunction(function: KtNamedFunction) {
+                if (!function.isLocalFunction()) {
+                    collectFunctionEvents(function, lineIndex, out)
+                }
+                // The body is traversed once in collectFunctionEvents, local functions included.
+            }
+        })
+    }
+
+    private fun collectFunctionEvents(function: KtNamedFunction, lineIndex: LineIndex, out: MutableList<ScanEvent>) {
+        val method = function.name ?: return
+        val fqcn = resolveBinaryClassName(function) ?: return
+        val signature = signatureOf(method, function)
+        val body = function.bodyExpression ?: return
+        fun emit(kind: String, offset: Int, text: String?) {
+            out += ScanEvent("kotlin", fqcn, method, signature, kind, lineIndex.lineAt(offset), text?.let(::singleLine))
+        }
+        body.accept(object : KtTreeVisitorVoid() {
+            override fun visitIfExpression(expression: KtIfExpression) {
+                expression.condition?.let { condition ->
+                    emit("if-true", expression.startOffset, condition.text)
+                    emit("if-false", expression.startOffset, condition.text)
+                }
+                super.visitIfExpression(expression)
+            }
+
+            override fun visitWhenExpression(expression: KtWhenExpression) {
+                val subject = expression.subjectExpression ?: expression.subjectVariable
+                emit("switch", expression.startOffset, subject?.text)
+                expression.entries.forEach { entry ->
+                    emit("when-branch", entry.startOffset, buildWhenLabel(entry))
+                }
+                super.visitWhenExpression(expression)
+            }
+
+            override fun visitIsExpression(expression: KtIsExpression) {
+                emit("is-true", expression.startOffset, expression.text)
+                emit("is-false", expression.startOffset, expression.text)
+                super.visitIsExpression(expression)
+            }
+
+            override fun visitBinaryExpression(expression: KtBinaryExpression) {
+                val left = expression.left
+                if (expression.operationToken == KtTokens.EQ && left != null) {
+                    emit("write", expression.startOffset, left.text)
+                }
+                super.visitBinaryExpression(expression)
+            }
+
+            override fun visitReturnExpression(expression: KtReturnExpression) {
+                emit("return", expression.startOffset, null)
+                super.visitReturnExpression(expression)
+            }
+
+            override fun visitThrowExpression(expression: KtThrowExpression) {
+                emit("throw", expression.startOffset, expression.thrownExpression?.text)
+                super.visitThrowExpression(expression)
+            }
+        })
+    }
+
+    // Parameter types as written, without whitespace: fun f(a: Map<String, Int>) gives f(Map<String,Int>).
+    private fun signatureOf(method: String, function: KtNamedFunction): String =
+        function.valueParameters.joinToString(",", "$method(", ")") { parameter ->
+            parameter.typeReference?.text?.filterNot(Char::isWhitespace) ?: "Any"
+        }
+
+    private companion object {
+        private val LINE_BREAK = Regex("\\s*\\n\\s*")
+
+        // Rule conditions and labels are embedded in single rule lines.
+        fun singleLine(text: String): String = if ('\n' in text) text.replace(LINE_BREAK, " ") else text
+    }
+}
+
+// Kotlin PSI helpers shared by KotlinPsiScanner and the legacy path of GenerateBtmTask.
+
+/** JVM binary name of the class declaring [function], or null for functions of anonymous objects. */
+internal fun resolveBinaryClassName(function: KtNamedFunction): String? {
+    val classOrObject = function.containingClassOrObject
+    val packageName = function.containingKtFile.packageFqName.takeIf { !it.isRoot }?.asString().orEmpty()
+    return if (classOrObject == null) {
+        val fileName = function.containingKtFile.name.substringBeforeLast('.') + "Kt"
+        if (packageName.isEmpty()) fileName else "$packageName.$fileName"
+    } else {
+        val nameSegments = mutableListOf<String>()
+        var current: KtClassOrObject? = classOrObject
+        while (current != null) {
+            val simpleName = when (current) {
+                is KtObjectDeclaration -> {
+                    when {
+                        current.name != null -> current.name!!
+                        current.isCompanion() -> "Companion"
+                        else -> return null
+                    }
+                }
+                else -> current.name ?: return null
+            }
+            nameSegments.add(simpleName)
+            current = current.containingClassOrObject
+        }
+        val binaryName = nameSegments.asReversed().joinToString("$")
+        if (packageName.isEmpty()) binaryName else "$packageName.$binaryName"
+    }
+}
+
+internal fun buildWhenLabel(entry: KtWhenEntry): String {
+    if (entry.isElse) {
+        return "else"
+    }
+    val texts = entry.conditions.map { it.text.trim() }
+    return texts.joinToString(" | ")
+}
+
+internal fun KtNamedFunction.isLocalFunction(): Boolean {
+    val parent = this.parent
+    return parent is KtBlockExpression || parent is KtWhenEntry
+}
+
+internal class LineIndex(text: String) {
+    private val lineStarts: IntArray
+
+    init {
+        val starts = mutableListOf(0)
+        text.forEachIndexed { index, c ->
+            if (c == '\n') {
+                starts.add(index + 1)
+            }
+        }
+        lineStarts = starts.toIntArray()
+    }
+
+    fun lineAt(offset: Int): Int {
+        if (lineStarts.isEmpty()) {
+            return 1
+        }
+        var low = 0
+        var high = lineStarts.size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val start = lineStarts[mid]
+            val next = if (mid + 1 < lineStarts.size) lineStarts[mid + 1] else Int.MAX_VALUE
+            when {
+                offset < start -> high = mid - 1
+                offset >= next -> low = mid + 1
+                else -> return mid + 1
+            }
+        }
+        return lineStarts.size
+    }
+}
@@ -0,0 +1,258 @@
+package de.burger.forensics.plugin
+
+import de.burger.forensics.plugin.io.ScanSkipReport
+import de.burger.forensics.plugin.scan.ScanArtifact
+import de.burger.forensics.plugin.scan.ScanCache
+import org.gradle.api.DefaultTask
+import org.gradle.api.InvalidUserDataException
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.*
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
+import java.io.File
+import javax.inject.Inject
+
+/**
+ * Scans the sources with the AST scanners and writes the events to a binary artifact that
+ * [GenerateBtmTask] renders via its `scanResults` property. Only inputs that influence the events live
+ * here, so tuning rendering settings reuses the (build-cached) scan result.
+ *
+ * The sources are scanned through the Gradle Worker API, one work item per source root, so Gradle can
+ * schedule the scan alongside other work and, with `process` isolation, keep it off the daemon heap.
+ */
+@CacheableTask
+abstract class ScanSourcesTask : DefaultTask() {
+
+    init {
+        srcDirs.convention(listOf("src/main/java", "src/main/kotlin"))
+        packagePrefix.convention("")
+        pkgPrefixes.convention(emptyList())
+        includePatterns.convention(emptyList())
+        excludePatterns.convention(emptyList())
+        includeJava.convention(true)
+        kotlinScanner.convention(KOTLIN_SCANNER_LEXER)
+        maxFileBytes.convention(2_000_000L)
+        scanTimeoutMillis.convention(30_000L)
+        parallelism.convention(Runtime.getRuntime().availableProcessors().coerceAtLeast(1))
+        scanCache.convention(false)
+        scanCacheDir.convention(
+            project.layout.dir(project.provider { File(project.gradle.gradleUserHomeDir, "caches/forensics-btmgen/scan") })
+        )
+        scanCacheMaxBytes.convention(256L * 1024 * 1024)
+        workerIsolation.convention("none")
+        eventsFile.convention(project.layout.buildDirectory.file("forensics-scan/$name.bin"))
+        skipReport.convention(project.layout.buildDirectory.file("forensics-reports/$name-skipped.txt"))
+    }
+
+    /** Source roots; tracked through [sourceFiles] so that the task stays relocatable. */
+    @get:Internal
+    abstract val srcDirs: ListProperty<String>
+
+    @get:Input
+    @get:Optional
+    abstract val packagePrefix: Property<String>
+
+    @get:Input
+    abstract val pkgPrefixes: ListProperty<String>
+
+    @get:Input
+    abstract val includePatterns: ListProperty<String>
+
+    @get:Input
+    abstract val excludePatterns: ListProperty<String>
+
+    @get:Input
+    abstract val includeJava: Property<Boolean>
+
+    /**
+     * Kotlin scanner, see [GenerateBtmTask.kotlinScanner]. With `psi` the work items lease PSI environments
+     * from [kotlinPsiEnvironment]; isolated work items share a pool per worker process or classloader.
+     */
+    @get:Input
+    abstract val kotlinScanner: Property<String>
+
+    @get:Input
+    abstract val maxFileBytes: Property<Long>
+
+    /** Time budget of each regex pass over a Java file, see [GenerateBtmTask.scanTimeoutMillis]. */
+    @get:Input
+    abstract val scanTimeoutMillis: Property<Long>
+
+    @get:Internal
+    abstract val parallelism: Property<Int>
+
+    @get:Internal
+    abstract val scanCache: Property<Boolean>
+
+    @get:Internal
+    abstract val scanCacheDir: DirectoryProperty
+
+    @get:Internal
+    abstract val scanCacheMaxBytes: Property<Long>
+
+    /** Worker isolation of the scan work items: `none`, `classloader` or `process`. */
+    @get:Internal
+    abstract val workerIsolation: Property<String>
+
+    /** Maximum heap of the worker processes with `process` isolation, e.g. `1g`; the Gradle default if unset. */
+    @get:Internal
+    abstract val workerMaxHeap: Property<String>
+
+    /** Shared Kotlin PSI environments of the build, wired by [BtmGenPlugin]. */
+    @get:Internal
+    abstract val kotlinPsiEnvironment: Property<KotlinPsiEnvironmentService>
+
+    @get:Inject
+    protected abstract val workerExecutor: WorkerExecutor
+
+    @get:OutputFile
+    abstract val eventsFile: RegularFileProperty
+
+    /** Files whose scan ran over [scanTimeoutMillis], with the time spent on them. */
+    @get:OutputFile
+    abstract val skipReport: RegularFileProperty
+
+    @get:InputFiles
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    protected val sourceFiles: FileCollection = project.files(project.provider { orderedSources().map { it.file } })
+
+    @TaskAction
+    fun scan() {
+        try {
+            scanSources()
+        } finally {
+            inventory = null
+        }
+    }
+
+    private fun scanSources() {
+        val prefixes = buildList {
+            pkgPrefixes.orNull?.filter { it.isNotBlank() }?.let { addAll(it) }
+            packagePrefix.orNull?.takeIf { it.isNotBlank() }?.let { add(it) }
+        }
+        val scanner = kotlinScanner.get().trim().lowercase()
+        if (scanner != KOTLIN_SCANNER_LEXER && scanner != KOTLIN_SCANNER_PSI) {
+            throw InvalidUserDataException(
+                "Unsupported kotlinScanner '${kotlinScanner.get()}', expected one of: $KOTLIN_SCANNER_LEXER, $KOTLIN_SCANNER_PSI"
+            )
+        }
+        val projectDir = project.layout.projectDirectory.asFile
+        val partitions = partitionByRoot(orderedSources())
+        val partDir = temporaryDir.apply { listFiles()?.forEach { it.delete() } }
+        val isolation = workerIsolation.getOrElse("none").trim().lowercase()
+        val queue = workQueue(isolation)
+        // Build services cannot cross an isolation boundary; isolated work items pool PSI environments per
+        // worker classloader instead.
+        val usePsiService = scanner == KOTLIN_SCANNER_PSI && isolation == "none" && kotlinPsiEnvironment.isPresent
+        // Work items run concurrently, so together they stay within the configured parallelism.
+        val itemParallelism = (parallelism.getOrElse(1) / partitions.size.coerceAtLeast(1)).coerceAtLeast(1)
+
+        val partFiles = partitions.mapIndexed { index, entries ->
+            val partFile = File(partDir, "part-%04d.bin".format(index))
+            queue.submit(ScanWorkAction::class.java) { params ->
+                params.files.set(entries.map { it.file.absolutePath })
+                params.sizes.set(entries.map { it.size })
+                params.paths.set(entries.map { entry ->
+                    entry.file.toRelativeString(projectDir).takeUnless { it.startsWith("..") }
+                        ?.replace('\\', '/') ?: entry.file.absolutePath
+                })
+                params.prefixes.set(prefixes)
+                params.kotlinScanner.set(scanner)
+                if (usePsiService) params.kotlinPsiEnvironment.set(kotlinPsiEnvironment)
+                params.maxFileBytes.set(maxFileBytes.getOrElse(2_000_000L))
+                params.scanTimeoutMillis.set(scanTimeoutMillis.getOrElse(30_000L))
+                params.parallelism.set(itemParallelism)
+                if (scanCache.getOrElse(false)) params.scanCacheDir.set(scanCacheDir)
+                params.partFile.set(partFile)
+                params.skipReportFile.set(skipFileOf(partFile))
+            }
+            partFile
+        }
+        queue.await()
+        // The work items share the cache directory, so it is trimmed once here instead of by each of them.
+        if (scanCache.getOrElse(false)) {
+            ScanCache(scanCacheDir.get().asFile.toPath(), scanCacheMaxBytes.getOrElse(256L * 1024 * 1024)).trim()
+        }
+
+        val skips = ScanSkipReport()
+        partFiles.forEach { part ->
+            val skipFile = skipFileOf(part)
+            skips.addAll(ScanSkipReport.read(skipFile.toPath()))
+            skipFile.delete()
+        }
+        skips.write(skipReport.get().asFile.toPath())
+        if (!skips.isEmpty) {
+            logger.warn("Some source files ran over scanTimeoutMillis, see ${skipReport.get().asFile}")
+        }
+
+        // Partitions are contiguous runs of the ordered file list, so concatenating them keeps the order.
+        var scanned = 0
+        ScanArtifact.Writer(eventsFile.get().asFile.toPath()).use { writer ->
+            partFiles.forEach { part ->
+                ScanArtifact.read(part.toPath()).forEach { scan ->
+                    writer.write(scan)
+                    scanned++
+                }
+                part.delete()
+            }
+        }
+        logger.info("Scanned $scanned source file(s) in ${partitions.size} work item(s) into ${eventsFile.get().asFile}")
+    }
+
+    private fun skipFileOf(partFile: File): File = File(partFile.parentFile, partFile.nameWithoutExtension + ".skipped")
+
+    private fun workQueue(isolation: String): WorkQueue = when (isolation) {
+        "none" -> workerExecutor.noIsolation()
+        "classloader" -> workerExecutor.classLoaderIsolation()
+        "process" -> workerExecutor.processIsolation { spec ->
+            workerMaxHeap.orNull?.takeIf { it.isNotBlank() }?.let { spec.forkOptions.maxHeapSize = it }
+        }
+        else -> throw InvalidUserDataException(
+            "Unsupported workerIsolation '${workerIsolation.get()}', expected one of: none, classloader, process"
+        )
+    }
+
+    // One work item per source root. The ordered list can visit a root more than once (Java files, then
+    // Kotlin files), so each contiguous run becomes its own partition.
+    private fun partitionByRoot(entries: List<SourceEntry>): List<List<SourceEntry>> {
+        val roots = srcDirs.orNull?.map { resolvePath(it).absoluteFile } ?: emptyList()
+        val partitions = mutableListOf<MutableList<SourceEntry>>()
+        var currentRoot: File? = null
+        entries.forEach { entry ->
+            val root = roots.firstOrNull { entry.file.absoluteFile.startsWith(it) }
+            if (partitions.isEmpty() || root != currentRoot) {
+                partitions += mutableListOf<SourceEntry>()
+                currentRoot = root
+            }
+            partitions.last() += entry
+        }
+        return partitions
+    }
+
+    // Fingerprinting and the task action share one walk of the source roots, see GenerateBtmTask.
+    @Transient
+    private var inventory: Pair<List<Any?>, SourceInventory>? = null
+
+    // Java first, then Kotlin: the order GenerateBtmTask scans in, so rendering yields identical shards.
+    private fun orderedSources(): List<SourceEntry> {
+        val directories = srcDirs.orNull?.map { resolvePath(it) }?.filter { it.exists() } ?: emptyList()
+        val includes = includePatterns.orNull?.takeIf { it.isNotEmpty() }
+        val excludes = excludePatterns.orNull?.takeIf { it.isNotEmpty() } ?: emptyList()
+        val key = listOf(directories, includes, excludes)
+        val sources = inventory?.takeIf { it.first == key }?.second
+            ?: SourceInventory.scan(directories, includes, excludes).also { inventory = key to it }
+        return buildList {
+            if (includeJava.getOrElse(true)) addAll(sources.javaEntries)
+            addAll(sources.kotlinEntries)
+        }
+    }
+
+    private fun resolvePath(path: String): File {
+        val file = File(path)
+        return if (file.isAbsolute) file else project.layout.projectDirectory.file(path).asFile
+    }
+}
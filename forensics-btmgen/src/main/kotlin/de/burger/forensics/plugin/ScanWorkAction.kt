@@ -0,0 +1,100 @@
+package de.burger.forensics.plugin
+
+import de.burger.forensics.plugin.engine.SourceFileGuards
+import de.burger.forensics.plugin.io.ScanSkipReport
+import de.burger.forensics.plugin.scan.PackagePrefixFilter
+import de.burger.forensics.plugin.scan.ParallelScanEngine
+import de.burger.forensics.plugin.scan.ScanArtifact
+import de.burger.forensics.plugin.scan.ScanCache
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+import java.io.File
+
+/**
+ * Scans one partition of the sources of a [ScanSourcesTask] and writes it to a partial scan artifact.
+ * Runs through the Gradle Worker API, possibly in a separate worker process, so apart from the build
+ * service it only gets plain values.
+ */
+abstract class ScanWorkAction : WorkAction<ScanWorkAction.Parameters> {
+
+    interface Parameters : WorkParameters {
+        /** Absolute paths of the files to scan, in artifact order. */
+        val files: ListProperty<String>
+
+        /** File sizes recorded by the source inventory, parallel to [files]. */
+        val sizes: ListProperty<Long>
+
+        /** Paths recorded in the artifact, parallel to [files]. */
+        val paths: ListProperty<String>
+        val prefixes: ListProperty<String>
+        val kotlinScanner: Property<String>
+        val maxFileBytes: Property<Long>
+        val scanTimeoutMillis: Property<Long>
+
+        /** Scan threads of this work item; the task divides its parallelism among the work items. */
+        val parallelism: Property<Int>
+
+        /**
+         * PSI environments of the build; absent with classloader or process isolation, which cannot reach
+         * the build service and lease from [workerPsiPool] instead.
+         */
+        val kotlinPsiEnvironment: Property<KotlinPsiEnvironmentService>
+
+        /** Scan cache directory; absent when the cache is disabled. */
+        val scanCacheDir: DirectoryProperty
+        val partFile: RegularFileProperty
+
+        /** Receives the files of this partition that ran over [scanTimeoutMillis]. */
+        val skipReportFile: RegularFileProperty
+    }
+
+    override fun execute() {
+        val logger = Logging.getLogger(ScanWorkAction::class.java)
+        val files = parameters.files.get().map { File(it) }
+        val sizes = parameters.sizes.get()
+        val paths = parameters.paths.get()
+        val prefixes = parameters.prefixes.get()
+        val prefixFilter = PackagePrefixFilter.of(prefixes, emptyList())
+        val limit = parameters.maxFileBytes.get()
+        val debugSink: (String) -> Unit = { logger.debug(it) }
+        val warn: (String) -> Unit = { logger.warn(it) }
+        val budget = ScanBudget(parameters.scanTimeoutMillis.get())
+        // No cap here: the task trims the shared directory once all work items are done.
+        val cache = parameters.scanCacheDir.orNull?.let { ScanCache(it.asFile.toPath(), 0) }
+        val psiService = parameters.kotlinPsiEnvironment.orNull
+        val scanner = scannerFacade(cache, parameters.kotlinScanner.get()) {
+            psiService?.lease() ?: workerPsiPool.lease()
+        }
+
+        ScanArtifact.Writer(parameters.partFile.get().asFile.toPath()).use { writer ->
+            ParallelScanEngine(parameters.parallelism.get()).use { engine ->
+                engine.forEachOrdered(
+                    files.indices.toList(),
+                    { index ->
+                        val file = files[index]
+                        val scan = if (SourceFileGuards.shouldSkipLargeFile(file, sizes[index], limit, debugSink)) {
+                            AstFileScan.EMPTY
+                        } else {
+                            scanAstFile(scanner, file, paths[index], prefixes, emptyList(), prefixFilter, budget, warn)
+                        }
+                        ScanArtifact.FileScan(paths[index], scan.events, scan.missingJavaMethods, scan.fallbackSource)
+                    }
+                ) { writer.write(it) }
+            }
+        }
+        budget.report.write(parameters.skipReportFile.get().asFile.toPath())
+        cache?.let {
+            logger.info("Scan cache: ${it.hits()} hit(s), ${it.misses()} miss(es)")
+        }
+    }
+
+    private companion object {
+        // Shared by all isolated work items of a worker process or classloader and released with it.
+        val workerPsiPool: KotlinPsiEnvironmentPool by lazy { KotlinPsiEnvironmentPool() }
+    }
+}
@@ -0,0 +1,89 @@
+package de.burger.forensics.plugin
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+
+/** A source file together with the attributes read while walking the tree. */
+internal class SourceEntry(val file: File, val size: Long, val lastModified: Long)
+
+/**
+ * Java and Kotlin sources of a set of source roots, collected in a single walk. Sizes and modification
+ * times come from the walk's file attributes, so later stages need no extra `stat` calls. Directories
+ * that the include/exclude globs rule out are not descended into, see [SourcePathMatcher].
+ */
+internal class SourceInventory private constructor(
+    val javaEntries: List<SourceEntry>,
+    val kotlinEntries: List<SourceEntry>
+) {
+    private val sizes: Map<File, Long> = (javaEntries + kotlinEntries).associate { it.file to it.size }
+
+    val javaFiles: List<File> = javaEntries.map { it.file }
+    val kotlinFiles: List<File> = kotlinEntries.map { it.file }
+
+    /** Size recorded by the walk, or the current length for files outside the inventory. */
+    fun sizeOf(file: File): Long = sizes[file] ?: file.length()
+
+    companion object {
+        fun scan(directories: List<File>, includes: List<String>?, excludes: List<String>): SourceInventory {
+            val java = mutableListOf<SourceEntry>()
+            val kotlin = mutableListOf<SourceEntry>()
+            directories.forEach { dir ->
+                val root = dir.toPath()
+                val matcher = SourcePathMatcher(includes, excludes)
+                // Root-relative path of each directory on the current walk path, "" for the root.
+                val dirPaths = ArrayDeque<String>()
+                val relPath = StringBuilder()
+                Files.walkFileTree(root, object : SimpleFileVisitor<Path>() {
+                    override fun preVisitDirectory(dirPath: Path, attrs: BasicFileAttributes): FileVisitResult {
+                        val parent = dirPaths.lastOrNull()
+                        val rel = when {
+                            parent == null -> ""
+                            parent.isEmpty() -> dirPath.fileName.toString()
+                            else -> parent + '/' + dirPath.fileName
+                        }
+                        if (parent != null && !matcher.shouldDescend(rel)) return FileVisitResult.SKIP_SUBTREE
+                        dirPaths.addLast(rel)
+                        return FileVisitResult.CONTINUE
+                    }
+
+                    override fun postVisitDirectory(dirPath: Path, exc: IOException?): FileVisitResult {
+                        dirPaths.removeLastOrNull()
+                        return FileVisitResult.CONTINUE
+                    }
+
+                    override fun visitFile(file: Path, walkAttrs: BasicFileAttributes): FileVisitResult {
+                        // Symbolic links to source files count as sources, with the attributes of their target.
+                        val attrs = if (walkAttrs.isSymbolicLink && Files.isRegularFile(file)) {
+                            Files.readAttributes(file, BasicFileAttributes::class.java)
+                        } else {
+                            walkAttrs
+                        }
+                        if (!attrs.isRegularFile) return FileVisitResult.CONTINUE
+                        val name = file.fileName.toString()
+                        val target = when {
+                            name.endsWith(".java") -> java
+                            name.endsWith(".kt") -> kotlin
+                            else -> return FileVisitResult.CONTINUE
+                        }
+                        val dirPath = dirPaths.lastOrNull().orEmpty()
+                        relPath.setLength(0)
+                        if (dirPath.isNotEmpty()) relPath.append(dirPath).append('/')
+                        relPath.append(name)
+                        if (matcher.matches(relPath)) {
+                            target += SourceEntry(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis())
+                        }
+                        return FileVisitResult.CONTINUE
+                    }
+
+                    override fun visitFileFailed(file: Path, exc: IOException): FileVisitResult = FileVisitResult.CONTINUE
+                })
+            }
+            return SourceInventory(java.sortedBy { it.file.absolutePath }, kotlin.sortedBy { it.file.absolutePath })
+        }
+    }
+}
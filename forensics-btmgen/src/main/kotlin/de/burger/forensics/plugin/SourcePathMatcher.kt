@@ -0,0 +1,134 @@
+package de.burger.forensics.plugin
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * Include/exclude globs compiled once for a walk of a source root. Paths are relative to the root and
+ * use `/`; globs follow [java.nio.file.FileSystem.getPathMatcher] syntax, like [globMatchesPath].
+ *
+ * Besides matching files, the matcher decides per directory whether its subtree can contain a match at
+ * all, so excluded subtrees such as generated/ are never walked. File matching reuses one [Matcher]
+ * per glob and does not allocate; an instance is therefore confined to the walking thread.
+ */
+internal class SourcePathMatcher(includes: List<String>?, excludes: List<String>) {
+    private val includeGlobs = includes?.map { CompiledGlob(it) }
+    private val excludeGlobs = excludes.map { CompiledGlob(it) }
+
+    /** False if no file below [relDir] can be included, so the walk may skip the subtree. */
+    fun shouldDescend(relDir: String): Boolean {
+        if (excludeGlobs.any { it.excludesSubtree(relDir) }) return false
+        if (includeGlobs == null) return true
+        val segments = relDir.split('/')
+        return includeGlobs.any { it.couldMatchBelow(segments) }
+    }
+
+    fun matches(relPath: CharSequence): Boolean {
+        if (includeGlobs != null && includeGlobs.none { it.matches(relPath) }) return false
+        return excludeGlobs.none { it.matches(relPath) }
+    }
+
+    private class CompiledGlob(glob: String) {
+        private val matcher: Matcher = Pattern.compile(globToPathRegex(glob)).matcher("")
+
+        // For `prefix/**`: every path below a directory matching the prefix is matched.
+        private val subtreePrefix: Matcher? = glob.takeIf { it.endsWith("/**") && it.length > 3 }
+            ?.let { Pattern.compile(globToPathRegex(it.dropLast(3))).matcher("") }
+
+        // Null if the glob cannot be split into per-directory segments (a `/` inside `{...}` or `[...]`).
+        private val segments: List<Pattern>? = splitSegments(glob)?.map { segment ->
+            if (segment.contains("**")) ANY_DEPTH else Pattern.compile(globToPathRegex(segment))
+        }
+
+        fun matches(relPath: CharSequence): Boolean = matcher.reset(relPath).matches()
+
+        fun excludesSubtree(relDir: String): Boolean = subtreePrefix?.reset(relDir)?.matches() ?: false
+
+        fun couldMatchBelow(dirSegments: List<String>): Boolean {
+            val patterns = segments ?: return true
+            dirSegments.forEachIndexed { index, dirSegment ->
+                val pattern = patterns.getOrNull(index) ?: return false
+                if (pattern === ANY_DEPTH) return true
+                // The last glob segment names the file, a directory cannot satisfy it.
+                if (index == patterns.lastIndex) return false
+                if (!pattern.matcher(dirSegment).matches()) return false
+            }
+            return true
+        }
+    }
+
+    private companion object {
+        val ANY_DEPTH: Pattern = Pattern.compile(".*")
+
+        fun splitSegments(glob: String): List<String>? {
+            val segments = mutableListOf<String>()
+            var depth = 0
+            var start = 0
+            glob.forEachIndexed { i, c ->
+                when (c) {
+                    '{', '[' -> depth++
+                    '}', ']' -> depth--
+                    '/' -> if (depth == 0) {
+                        segments += glob.substring(start, i)
+                        start = i + 1
+                    } else {
+                        return null
+                    }
+                }
+            }
+            segments += glob.substring(start)
+            return segments
+        }
+
+        fun globToPathRegex(glob: String): String {
+            val sb = StringBuilder()
+            var inGroup = false
+            var i = 0
+            while (i < glob.length) {
+                when (val c = glob[i]) {
+                    '\\' -> {
+                        if (i + 1 < glob.length) sb.append(Pattern.quote(glob[++i].toString()))
+                    }
+                    '*' -> if (i + 1 < glob.length && glob[i + 1] == '*') {
+                        sb.append(".*")
+                        i++
+                    } else {
+                        sb.append("[^/]*")
+                    }
+                    '?' -> sb.append("[^/]")
+                    '[' -> {
+                        sb.append('[')
+                        if (i + 1 < glob.length && glob[i + 1] == '!') {
+                            sb.append('^')
+                            i++
+                        }
+                        while (++i < glob.length && glob[i] != ']') {
+                            val inner = glob[i]
+                            if (inner == '\\' || inner == '[' || inner == '&') sb.append('\\')
+                            sb.append(inner)
+                        }
+                        sb.append(']')
+                    }
+                    '{' -> {
+                        sb.append("(?:")
+                        inGroup = true
+                    }
+                    '}' -> if (inGroup) {
+                        sb.append(')')
+                        inGroup = false
+                    } else {
+                        sb.append("\\}")
+                    }
+                    ',' -> if (inGroup) sb.append('|') else sb.append(',')
+                    else -> if (c.isLetterOrDigit() || c == '/' || c == '_' || c == '-') {
+                        sb.append(c)
+                    } else {
+                        sb.append('\\').append(c)
+                    }
+                }
+                i++
+            }
+            return sb.toString()
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
@@ -17,6 +18,7 @@ import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ShardedWriterTest {
 
@@ -189,6 +191,31 @@ class ShardedWriterTest {
         assertThat(names).containsExactly("legacy-0001.btm", "legacy-0002.btm");
     }
 
+    @Test
+    void rewritesOnlyActiveShards() throws Exception {
+        File dir = tempDir.resolve("active").toFile();
+        try (ShardedWriter writer = new ShardedWriter(dir, 3, false, "tracing-")) {
+            writer.writeHeader("# Header\n");
+            for (int i = 0; i < 3; i++) {
+                writer.append(i, buildRule("initial-" + i, "old"));
+            }
+        }
+
+        try (ShardedWriter writer = new ShardedWriter(dir, 3, false, "tracing-", 0, 0, 0, 0, true, Set.of(1))) {
+            writer.writeHeader("# Header\n");
+            writer.append(1, buildRule("updated-1", "new"));
+            assertThatThrownBy(() -> writer.append(0, buildRule("rejected", "x")))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        List<Path> files = Files.list(dir.toPath()).sorted().toList();
+        assertThat(files).hasSize(3);
+        assertThat(Files.readString(files.get(0), StandardCharsets.UTF_8)).contains("RULE initial-0");
+        String rewritten = Files.readString(files.get(1), StandardCharsets.UTF_8);
+        assertThat(rewritten).contains("RULE updated-1").doesNotContain("initial-1");
+        assertThat(Files.readString(files.get(2), StandardCharsets.UTF_8)).contains("RULE initial-2");
+    }
+
     private String buildRule(String name, String message) {
         return "RULE " + name + "\n" +
             "CLASS com.example.Sample\n" +
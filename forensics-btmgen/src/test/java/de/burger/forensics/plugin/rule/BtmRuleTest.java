@@ -0,0 +1,83 @@
+package de.burger.forensics.plugin.rule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class BtmRuleTest {
+
+    @Test
+    void rendersLineRuleWithConditionAndActions() {
+        BtmRule rule = new BtmRule(RuleKind.IF_FALSE, "com.example.Alpha", "compute", BtmRule.ANY_SIGNATURE,
+            "helper.Helper", 12, null, null, "!(value > 0)",
+            List.of("DO iff(\"com.example.Alpha\",\"compute\",12,\"value > 0\", false)"));
+
+        assertThat(rule.render()).isEqualTo(String.join("\n",
+            "RULE com.example.Alpha.compute:12:if-false",
+            "CLASS com.example.Alpha",
+            "METHOD compute(..)",
+            "HELPER helper.Helper",
+            "AT LINE 12",
+            "IF (!(value > 0))",
+            "DO iff(\"com.example.Alpha\",\"compute\",12,\"value > 0\", false)",
+            "ENDRULE"));
+        assertThat(rule.shardKey()).isEqualTo("com.example.Alpha#compute:12");
+        assertThat(rule.methodKey()).isEqualTo("com.example.Alpha.compute");
+        assertThat(rule.isBranch()).isTrue();
+    }
+
+    @Test
+    void decisionRuleCountsBothOutcomesAndShardsLikeThePairItReplaces() {
+        BtmRule decision = BtmRule.decision(RuleKind.IS, "helper.Helper", "com.example.Alpha", "compute", 12,
+            "value instanceof String", List.of("DO iff(\"com.example.Alpha\",\"compute\",12,\"value is String\", taken)"));
+
+        assertThat(decision.name()).isEqualTo("com.example.Alpha.compute:12:is");
+        assertThat(decision.binding()).isEqualTo("taken:boolean = (value instanceof String)");
+        assertThat(decision.isBranch()).isTrue();
+        assertThat(decision.kind().branches()).isEqualTo(RuleKind.IS_TRUE.branches() + RuleKind.IS_FALSE.branches());
+        assertThat(decision.shardKey()).isEqualTo("com.example.Alpha#compute:12");
+    }
+
+    @Test
+    void entryAndWriteRulesAreShardedWithoutLine() {
+        BtmRule entry = BtmRule.entry("helper.Helper", "com.example.Alpha", "compute");
+        BtmRule write = new BtmRule(RuleKind.WRITE, "com.example.Alpha", "compute", null, "helper.Helper", 30,
+            "statusFlag", null, null, List.of("DO writeVar(\"com.example.Alpha\",\"compute\",30,\"statusFlag\", $statusFlag)"));
+
+        assertThat(entry.render()).isEqualTo(String.join("\n",
+            "RULE enter@com.example.Alpha.compute",
+            "CLASS com.example.Alpha",
+            "METHOD compute(..)",
+            "HELPER helper.Helper",
+            "AT ENTRY",
+            "DO enter(\"com.example.Alpha\",\"compute\", $LINE)",
+            "ENDRULE"));
+        assertThat(entry.shardKey()).isEqualTo("com.example.Alpha#compute:0");
+        assertThat(entry.methodKey()).isNull();
+        assertThat(entry.isBranch()).isFalse();
+
+        assertThat(write.name()).isEqualTo("com.example.Alpha.compute:30:write-statusFlag");
+        assertThat(write.location()).isEqualTo("AFTER WRITE $statusFlag");
+        assertThat(write.shardKey()).isEqualTo("com.example.Alpha#compute:0");
+        assertThat(write.isBranch()).isFalse();
+    }
+
+    @Test
+    void rendersIntoReusedBufferAndHashesShardKeyInPlace() {
+        RuleRenderer renderer = new RuleRenderer();
+        BtmRule exit = BtmRule.exit("helper.Helper", "com.example.Beta", "run");
+        BtmRule line = new BtmRule(RuleKind.CASE, "com.example.Alpha", "compute", null, "helper.Helper", -7,
+            null, null, null, List.of("DO kase(\"com.example.Alpha\",\"compute\",-7,\"else\")"));
+        BtmRule deep = new BtmRule(RuleKind.SWITCH, "com.example.\u00c4lpha$Inner", "compute", null, "helper.Helper",
+            1_000_000, null, null, null, List.of());
+
+        assertThat(renderer.render(exit).toString()).isEqualTo(exit.render());
+        assertThat(renderer.render(line).toString()).isEqualTo(line.render());
+        for (BtmRule rule : List.of(exit, line, deep)) {
+            assertThat(rule.shardKeyHash()).isEqualTo(rule.shardKey().hashCode());
+        }
+    }
+}
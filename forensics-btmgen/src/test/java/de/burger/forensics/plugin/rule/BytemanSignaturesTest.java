@@ -0,0 +1,39 @@
+package de.burger.forensics.plugin.rule;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class BytemanSignaturesTest {
+
+    @Test
+    void erasesGenericsAndVarargs() {
+        assertThat(BytemanSignatures.parameters("run()")).isEmpty();
+        assertThat(BytemanSignatures.parameters("run(int)")).isEqualTo("int");
+        assertThat(BytemanSignatures.parameters("find(List<String>, int...)")).isEqualTo("List,int[]");
+        assertThat(BytemanSignatures.parameters("put(Map<String, List<Integer>>, java.util.List, String[][])"))
+            .isEqualTo("Map,java.util.List,String[][]");
+    }
+
+    @Test
+    void hasNoExactFormForTypeVariablesAndNestedTypes() {
+        assertThat(BytemanSignatures.parameters("id(T)")).isNull();
+        assertThat(BytemanSignatures.parameters("copy(E[], int)")).isNull();
+        assertThat(BytemanSignatures.parameters("accept(Map.Entry)")).isNull();
+        assertThat(BytemanSignatures.parameters("accept(java.util.Map.Entry)")).isNull();
+        assertThat(BytemanSignatures.parameters("broken(int")).isNull();
+        assertThat(BytemanSignatures.parameters(null)).isNull();
+    }
+
+    @Test
+    void exactEntryRulesAreNamedPerOverload() {
+        BtmRule entry = BtmRule.entry("helper.Helper", "com.example.Alpha", "compute", "int,String");
+        BtmRule exit = BtmRule.exit("helper.Helper", "com.example.Alpha", "compute").withSignature("int");
+
+        assertThat(entry.name()).isEqualTo("enter@com.example.Alpha.compute(int,String)");
+        assertThat(entry.render()).contains("\nMETHOD compute(int,String)\n");
+        assertThat(exit.name()).isEqualTo("exit@com.example.Alpha.compute(int)");
+        assertThat(exit.shardKey()).isEqualTo(BtmRule.exit("helper.Helper", "com.example.Alpha", "compute").shardKey());
+    }
+}
@@ -0,0 +1,43 @@
+package de.burger.forensics.plugin.rule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class BytemanStringsTest {
+
+    @Test
+    void returnsCleanTextItself() {
+        String clean = "value > 0 && name.isEmpty()";
+
+        assertThat(BytemanStrings.escape(clean, 0)).isSameAs(clean);
+        assertThat(BytemanStrings.escape(clean, clean.length())).isSameAs(clean);
+    }
+
+    @Test
+    void escapesAndCutsLikeChainedReplace() {
+        List<String> inputs = List.of("", "a\"b", "\\", "line\nnext\r\n\tend", "say \"hi\"\\n", "plain text", "\"\"\"");
+        for (String input : inputs) {
+            for (int limit : new int[] {0, 1, 3, 5, 100}) {
+                String expected = chainedReplace(input, limit);
+                assertThat(BytemanStrings.escape(input, limit)).as("%s / %d", input, limit).isEqualTo(expected);
+                assertThat(BytemanStrings.escapeTo(new StringBuilder("x"), input, limit).toString())
+                    .isEqualTo("x" + expected);
+            }
+        }
+    }
+
+    // The escaping the generators used before: cut, then five replace calls.
+    private static String chainedReplace(String value, int limit) {
+        String truncated = limit > 0 && value.length() > limit ? value.substring(0, limit) + "…" : value;
+        return truncated
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n")
+            .replace("\r", "\\r")
+            .replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,48 @@
+package de.burger.forensics.plugin.rule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class CompilePolicyTest {
+    private static final BtmRule HOT_ENTRY = BtmRule.entry("helper.Helper", "com.shop.hot.Cart", "add");
+    private static final BtmRule HOT_CASE = new BtmRule(RuleKind.CASE, "com.shop.hot.Cart", "add", null,
+        "helper.Helper", 9, null, null, null, List.of("DO kase(\"com.shop.hot.Cart\",\"add\",9,\"default\")"));
+    private static final BtmRule COLD_ENTRY = BtmRule.entry("helper.Helper", "com.shop.admin.Report", "run");
+
+    @Test
+    void selectsRulesByPackageAndKind() {
+        CompilePolicy byPackage = CompilePolicy.of(false, List.of("com.shop.hot", " "), List.of());
+        CompilePolicy byKind = CompilePolicy.of(false, List.of(), List.of(RuleKind.ENTRY));
+        CompilePolicy both = CompilePolicy.of(false, List.of("com.shop.hot"), List.of(RuleKind.ENTRY));
+
+        assertThat(List.of(HOT_ENTRY, HOT_CASE, COLD_ENTRY)).map(byPackage::compiles).containsExactly(true, true, false);
+        assertThat(List.of(HOT_ENTRY, HOT_CASE, COLD_ENTRY)).map(byKind::compiles).containsExactly(true, false, true);
+        assertThat(List.of(HOT_ENTRY, HOT_CASE, COLD_ENTRY)).map(both::compiles).containsExactly(true, false, false);
+        assertThat(CompilePolicy.of(true, List.of(), List.of()).compiles(COLD_ENTRY)).isTrue();
+        assertThat(CompilePolicy.of(false, List.of(""), List.of())).isSameAs(CompilePolicy.NONE);
+    }
+
+    @Test
+    void rendersCompileClauseBeforeTheLocation() {
+        RuleRenderer renderer = new RuleRenderer(CompilePolicy.of(false, List.of(), List.of(RuleKind.fromId("entry"))));
+
+        assertThat(renderer.render(HOT_ENTRY).toString()).isEqualTo(String.join("\n",
+            "RULE enter@com.shop.hot.Cart.add",
+            "CLASS com.shop.hot.Cart",
+            "METHOD add(..)",
+            "HELPER helper.Helper",
+            "COMPILE",
+            "AT ENTRY",
+            "DO enter(\"com.shop.hot.Cart\",\"add\", $LINE)",
+            "ENDRULE"));
+        assertThat(renderer.render(HOT_CASE).toString()).isEqualTo(HOT_CASE.render());
+        assertThat(RuleKind.fromId("IF-TRUE")).isEqualTo(RuleKind.IF_TRUE);
+        assertThat(RuleKind.fromId("when")).isEqualTo(RuleKind.SWITCH);
+        assertThat(RuleKind.fromId("switch")).isEqualTo(RuleKind.SWITCH);
+        assertThat(RuleKind.fromId("loop")).isNull();
+    }
+}
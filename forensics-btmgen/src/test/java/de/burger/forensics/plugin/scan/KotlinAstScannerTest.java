@@ -86,4 +86,50 @@ public class KotlinAstScannerTest {
         });
         Assertions.assertThat(events).anySatisfy(e -> Assertions.assertThat(e.kind()).isEqualTo("throw"));
     }
+
+    @Test
+    void ignoresCommentsStringsAndLambdas() throws IOException {
+        Path root = Files.createTempDirectory("kotlin-lexer");
+        Files.writeString(root.resolve("Noise.kt"), """
+            package com.example
+
+            /* if (commented) { return } */
+            class Noise {
+                fun label(items: Map<String, Int> = emptyMap()): String {
+                    val text = "if (x) { return } ${items.size} ->"
+                    val raw = \"""
+                        when (y) { a -> b }
+                    \"""
+                    items.forEach { k, v -> println("$k=$v") }
+                    format(width = 3) // if (no) throw Nope()
+                    return text + raw
+                }
+
+                fun sign(x: Int) = if (x > 0) 1 else -1
+            }
+
+            data class Point(val x: Int)
+
+            fun String.shout(level: Int) {
+                if (level > 1) throw IllegalStateException(
+                    "too loud"
+                )
+            }
+            """.stripIndent());
+
+        List<ScanEvent> events = new KotlinAstScanner().scan(root, List.of(), List.of());
+
+        List<ScanEvent> label = events.stream().filter(e -> e.method().equals("label")).toList();
+        Assertions.assertThat(label).extracting(ScanEvent::kind).containsExactly("write", "write", "return");
+        Assertions.assertThat(label).extracting(ScanEvent::conditionText).containsExactly("text", "raw", null);
+        Assertions.assertThat(label).allSatisfy(e -> Assertions.assertThat(e.signature()).isEqualTo("label(Map<String,Int>)"));
+
+        Assertions.assertThat(events).filteredOn(e -> e.method().equals("sign"))
+            .extracting(ScanEvent::kind).containsExactly("if-true", "if-false");
+
+        List<ScanEvent> shout = events.stream().filter(e -> e.method().equals("shout")).toList();
+        Assertions.assertThat(shout).allSatisfy(e -> Assertions.assertThat(e.fqcn()).isEqualTo("com.example.NoiseKt"));
+        Assertions.assertThat(shout).extracting(ScanEvent::kind).containsExactly("if-true", "if-false", "throw");
+        Assertions.assertThat(shout.get(2).conditionText()).isEqualTo("IllegalStateException(\"too loud\")");
+    }
 }
@@ -0,0 +1,40 @@
+package de.burger.forensics.plugin.scan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class PackagePrefixFilterTest {
+
+    @Test
+    void acceptsNamesStartingWithAnIncludeButNoExclude() {
+        PackagePrefixFilter filter = PackagePrefixFilter.of(List.of("com.example", "org.demo.app"), List.of("com.example.gen"));
+
+        assertThat(filter.accepts("com.example")).isTrue();
+        assertThat(filter.accepts("com.example.service.Api")).isTrue();
+        assertThat(filter.accepts("org.demo.app.Main")).isTrue();
+        assertThat(filter.accepts("org.demo")).isFalse();
+        assertThat(filter.accepts("com.example.gen.Model")).isFalse();
+        assertThat(filter.accepts("")).isFalse();
+    }
+
+    @Test
+    void emptyOrBlankIncludesAcceptEverything() {
+        assertThat(PackagePrefixFilter.of(List.of(), List.of()).accepts("any.pkg")).isTrue();
+        assertThat(PackagePrefixFilter.of(List.of(" "), null).accepts("")).isTrue();
+    }
+
+    @Test
+    void packageCheckKeepsPackagesThatCanHoldMatchingClasses() {
+        PackagePrefixFilter filter = PackagePrefixFilter.of(List.of("com.example.Sam", "org.demo"), List.of());
+
+        assertThat(filter.mayAcceptClassesIn("com.example")).isTrue();
+        assertThat(filter.mayAcceptClassesIn("org.demo.deep")).isTrue();
+        assertThat(filter.mayAcceptClassesIn("")).isTrue();
+        assertThat(filter.mayAcceptClassesIn("com.other")).isFalse();
+        assertThat(filter.mayAcceptClassesIn("com.example.sub")).isFalse();
+    }
+}
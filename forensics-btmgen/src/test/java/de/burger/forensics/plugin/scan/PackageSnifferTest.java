@@ -0,0 +1,50 @@
+package de.burger.forensics.plugin.scan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class PackageSnifferTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsJavaPackageAfterHeaderComments() throws Exception {
+        Path file = tempDir.resolve("A.java");
+        Files.writeString(file, "/*\n * License\n */\n// note\npackage com.example . app;\n\nclass A {}\n");
+
+        assertThat(PackageSniffer.sniff(file)).isEqualTo("com.example.app");
+    }
+
+    @Test
+    void readsKotlinPackageWithoutSemicolon() throws Exception {
+        assertThat(sniff("#!/usr/bin/env kotlin\n/* a /* nested */ comment */\npackage a.b\n\nfun f() = 1\n", true))
+            .isEqualTo("a.b");
+        assertThat(sniff("package a.b", true)).isEqualTo("a.b");
+    }
+
+    @Test
+    void reportsDefaultPackage() throws Exception {
+        assertThat(sniff("import java.util.List;\nclass A {}\n", false)).isEmpty();
+        assertThat(sniff("// only a comment\n", false)).isEmpty();
+    }
+
+    @Test
+    void reportsUnknownForAnnotatedOrUnusualHeaders() throws Exception {
+        assertThat(sniff("@file:JvmName(\"X\")\npackage a.b\n", true)).isNull();
+        assertThat(sniff("@Deprecated\npackage a.b;\n", false)).isNull();
+        assertThat(sniff("package a.b\nclass A {}\n", false)).isNull();
+        assertThat(sniff(" ".repeat(PackageSniffer.MAX_HEADER_CHARS + 1) + "package a;", false)).isNull();
+    }
+
+    private static String sniff(String text, boolean kotlin) throws Exception {
+        return PackageSniffer.sniff(new StringReader(text), kotlin);
+    }
+}
@@ -0,0 +1,62 @@
+package de.burger.forensics.plugin.scan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// English comments only in code.
+class ParallelScanEngineTest {
+
+    @Test
+    void deliversResultsInInputOrderRegardlessOfCompletionOrder() {
+        List<Integer> inputs = IntStream.range(0, 64).boxed().toList();
+        Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+        List<Integer> results = new ArrayList<>();
+
+        try (ParallelScanEngine engine = new ParallelScanEngine(4)) {
+            engine.forEachOrdered(inputs, i -> {
+                workerThreads.add(Thread.currentThread().getName());
+                // Early inputs take longest so that later ones complete first.
+                LockSupport.parkNanos((64 - i) * 200_000L);
+                return i * 10;
+            }, results::add);
+        }
+
+        assertThat(results).containsExactlyElementsOf(inputs.stream().map(i -> i * 10).toList());
+        assertThat(workerThreads).allSatisfy(name -> assertThat(name).startsWith("btmgen-scan-"));
+    }
+
+    @Test
+    void runsInlineWhenParallelismIsOne() {
+        String caller = Thread.currentThread().getName();
+        List<String> seen = new ArrayList<>();
+
+        try (ParallelScanEngine engine = new ParallelScanEngine(1)) {
+            engine.forEachOrdered(List.of("a", "b", "c"), s -> Thread.currentThread().getName() + ":" + s, seen::add);
+        }
+
+        assertThat(seen).containsExactly(caller + ":a", caller + ":b", caller + ":c");
+    }
+
+    @Test
+    void rethrowsWorkerFailureOnCallingThread() {
+        try (ParallelScanEngine engine = new ParallelScanEngine(3)) {
+            assertThatThrownBy(() -> engine.forEachOrdered(List.of(1, 2, 3, 4), i -> {
+                if (i == 3) {
+                    throw new IllegalStateException("boom " + i);
+                }
+                return i;
+            }, ignored -> { }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("boom 3");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package de.burger.forensics.plugin.scan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// English comments only in code.
+class ScanArtifactTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsFileScansInOrder() throws Exception {
+        Path file = tempDir.resolve("scan/events.bin");
+        ScanArtifact.FileScan java = new ScanArtifact.FileScan(
+            "src/main/java/a/B.java",
+            List.of(
+                new ScanEvent("java", "a.B", "run", "run(int)", "if-true", 7, "x > 1"),
+                new ScanEvent("java", "a.B", "run", "run(int)", "if-false", 7, "x > 1")
+            ),
+            Set.of("a.B.helper"),
+            "package a; class B {}"
+        );
+        ScanArtifact.FileScan kotlin = new ScanArtifact.FileScan(
+            "src/main/kotlin/a/C.kt",
+            List.of(new ScanEvent("kotlin", "a.C", "f", null, "switch", 3, null)),
+            Set.of(),
+            null
+        );
+        ScanArtifact.FileScan skipped = new ScanArtifact.FileScan("src/main/kotlin/a/Big.kt", List.of(), Set.of(), null);
+
+        try (ScanArtifact.Writer writer = new ScanArtifact.Writer(file)) {
+            writer.write(java);
+            writer.write(kotlin);
+            writer.write(skipped);
+        }
+
+        assertThat(ScanArtifact.read(file)).containsExactly(java, kotlin, skipped);
+    }
+
+    @Test
+    void rejectsForeignFiles() throws Exception {
+        Path file = tempDir.resolve("foreign.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x1234);
+        }
+
+        assertThatThrownBy(() -> ScanArtifact.read(file)).hasMessageContaining("Unsupported scan artifact");
+    }
+}
@@ -0,0 +1,143 @@
+package de.burger.forensics.plugin.scan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// English comments only in code.
+class ScanCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsEventsAndKeysOnContent() throws Exception {
+        List<ScanEvent> events = List.of(
+            new ScanEvent("java", "a.B", "run", "run(int)", "if-true", 7, "x > 1"),
+            new ScanEvent("kotlin", "a.CKt", "f", null, "switch", 3, null)
+        );
+        byte[] content = "class B {}".getBytes(StandardCharsets.UTF_8);
+        String key = ScanCache.key("1", "B.java", List.of("a"), List.of(), content);
+        try (ScanCache cache = new ScanCache(tempDir.resolve("cache"), 0)) {
+            assertThat(cache.get(key)).isNull();
+            cache.put(key, events);
+            assertThat(cache.get(key)).containsExactlyElementsOf(events);
+            assertThat(cache.hits()).isEqualTo(1);
+            assertThat(cache.misses()).isEqualTo(1);
+        }
+
+        assertThat(ScanCache.key("1", "B.java", List.of("a"), List.of(), content)).isEqualTo(key);
+        assertThat(ScanCache.key("2", "B.java", List.of("a"), List.of(), content)).isNotEqualTo(key);
+        assertThat(ScanCache.key("1", "C.java", List.of("a"), List.of(), content)).isNotEqualTo(key);
+        assertThat(ScanCache.key("1", "B.java", List.of(), List.of("a"), content)).isNotEqualTo(key);
+        assertThat(ScanCache.key("1", "B.java", List.of("a"), List.of(), "class B { }".getBytes(StandardCharsets.UTF_8)))
+            .isNotEqualTo(key);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesBeyondCap() throws Exception {
+        Path dir = tempDir.resolve("lru");
+        List<ScanEvent> events = List.of(new ScanEvent("java", "a.B", "run", "run()", "if-true", 1, "x".repeat(200)));
+        String oldest = ScanCache.key("1", "A.java", List.of(), List.of(), new byte[] {1});
+        String used = ScanCache.key("1", "A.java", List.of(), List.of(), new byte[] {2});
+        String newest = ScanCache.key("1", "A.java", List.of(), List.of(), new byte[] {3});
+        try (ScanCache cache = new ScanCache(dir, Long.MAX_VALUE)) {
+            cache.put(oldest, events);
+            cache.put(used, events);
+            cache.put(newest, events);
+        }
+        ageEntries(dir);
+
+        long entrySize;
+        try (Stream<Path> files = Files.walk(dir)) {
+            entrySize = files.filter(Files::isRegularFile).findFirst().orElseThrow().toFile().length();
+        }
+        try (ScanCache cache = new ScanCache(dir, entrySize * 2)) {
+            Files.setLastModifiedTime(entryFile(dir, newest), FileTime.fromMillis(2_000_000L));
+            assertThat(cache.get(used)).isNotNull();
+        }
+
+        try (ScanCache cache = new ScanCache(dir, 0)) {
+            assertThat(cache.get(oldest)).isNull();
+            assertThat(cache.get(used)).isNotNull();
+            assertThat(cache.get(newest)).isNotNull();
+        }
+    }
+
+    @Test
+    void treatsCorruptEntriesAsMisses() throws Exception {
+        Path dir = tempDir.resolve("corrupt");
+        String key = ScanCache.key("1", "A.kt", List.of(), List.of(), new byte[] {42});
+        try (ScanCache cache = new ScanCache(dir, 0)) {
+            cache.put(key, List.of(new ScanEvent("kotlin", "a.AKt", "f", "", "if-true", 2, "y")));
+        }
+        Path entry = entryFile(dir, key);
+        Files.write(entry, new byte[] {0, 1, 2});
+
+        try (ScanCache cache = new ScanCache(dir, 0)) {
+            assertThat(cache.get(key)).isNull();
+        }
+        assertThat(Files.exists(entry)).isFalse();
+    }
+
+    @Test
+    void trimToleratesEntriesRemovedConcurrently() throws Exception {
+        Path dir = tempDir.resolve("vanished");
+        ScanCache cache = new ScanCache(dir, 1);
+        cache.put(ScanCache.key("1", "A.java", List.of(), List.of(), new byte[] {7}), List.of());
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+
+        cache.close();
+
+        assertThat(Files.exists(dir)).isFalse();
+    }
+
+    @Test
+    void facadeServesRepeatedScansFromCache() throws Exception {
+        Path source = tempDir.resolve("Sample.kt");
+        Files.writeString(source, """
+            package demo
+
+            class Sample {
+                fun check(value: Int): Int {
+                    if (value > 1) {
+                        return 1
+                    }
+                    return 0
+                }
+            }
+            """);
+        try (ScanCache cache = new ScanCache(tempDir.resolve("facade"), 0)) {
+            ScannerFacade facade = new ScannerFacade(cache);
+            List<ScanEvent> first = facade.scan(source, List.of(), List.of());
+            List<ScanEvent> second = facade.scan(source, List.of(), List.of());
+
+            assertThat(first).isNotEmpty();
+            assertThat(second).containsExactlyElementsOf(first);
+            assertThat(cache.hits()).isEqualTo(1);
+        }
+    }
+
+    private static void ageEntries(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000L));
+            }
+        }
+    }
+
+    private static Path entryFile(Path dir, String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".scan");
+    }
+}
@@ -0,0 +1,129 @@
+package de.burger.forensics.plugin
+
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileSystemLocation
+import org.gradle.api.file.FileType
+import org.gradle.api.provider.Provider
+import org.gradle.testfixtures.ProjectBuilder
+import org.gradle.work.ChangeType
+import org.gradle.work.FileChange
+import org.gradle.work.InputChanges
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class GenerateBtmTaskIncrementalTest {
+
+    @Test
+    fun `incremental run matches full regeneration and keeps untouched shards`() {
+        val sourceDir = Files.createTempDirectory("btmgen-incremental-src").toFile()
+        repeat(6) { idx -> writeSource(sourceDir, "C$idx", "value > $idx") }
+
+        val incrementalOut = Files.createTempDirectory("btm-incremental-out").toFile()
+        val task = configuredTask("generateIncremental", sourceDir, incrementalOut, incremental = true)
+        task.generate(FakeInputChanges(incremental = false, changes = emptyList()))
+
+        // Each file contributes to at most two shards (entry/exit and its if line), so at most six
+        // of the eight shards can be affected by the three changes below.
+        incrementalOut.listFiles().orEmpty().forEach { it.setLastModified(0L) }
+        val modified = writeSource(sourceDir, "C2", "value < 100")
+        val added = writeSource(sourceDir, "Added", "value == 7")
+        val removed = File(sourceDir, "com/example/C4.kt").also { it.delete() }
+        val changes = listOf(
+            FakeFileChange(modified, ChangeType.MODIFIED),
+            FakeFileChange(added, ChangeType.ADDED),
+            FakeFileChange(removed, ChangeType.REMOVED)
+        )
+        task.generate(FakeInputChanges(incremental = true, changes = changes))
+
+        val fullOut = Files.createTempDirectory("btm-full-out").toFile()
+        configuredTask("generateFull", sourceDir, fullOut, incremental = false).generate()
+
+        val incrementalShards = shardContents(incrementalOut)
+        assertEquals(shardContents(fullOut), incrementalShards, "Incremental output must match a full regeneration")
+        assertTrue(incrementalShards.values.any { it.contains("value < 100") })
+        assertTrue(incrementalShards.values.none { it.contains("com.example.C4") })
+        val untouched = incrementalOut.listFiles { file -> file.lastModified() == 0L }.orEmpty()
+        assertTrue(untouched.size >= 2, "Expected shards without changed rules to stay untouched")
+    }
+
+    @Test
+    fun `missing fragments fall back to a full regeneration`() {
+        val sourceDir = Files.createTempDirectory("btmgen-incremental-fallback").toFile()
+        writeSource(sourceDir, "Only", "value > 1")
+        val outputDir = Files.createTempDirectory("btm-incremental-fallback-out").toFile()
+        val task = configuredTask("generateFallback", sourceDir, outputDir, incremental = true)
+        task.generate(FakeInputChanges(incremental = false, changes = emptyList()))
+
+        task.fragmentDir.get().asFile.deleteRecursively()
+        val added = writeSource(sourceDir, "Second", "value > 2")
+        task.generate(FakeInputChanges(incremental = true, changes = listOf(FakeFileChange(added, ChangeType.ADDED))))
+
+        val content = shardContents(outputDir).values.joinToString("\n")
+        assertTrue(content.contains("com.example.Only") && content.contains("com.example.Second"), content)
+    }
+
+    private fun configuredTask(name: String, sourceDir: File, outputDir: File, incremental: Boolean): GenerateBtmTask {
+        val project = ProjectBuilder.builder().build()
+        val task = project.tasks.register(name, GenerateBtmTask::class.java).get()
+        task.srcDirs.set(listOf(sourceDir.absolutePath))
+        task.helperFqn.set("helper.Helper")
+        task.entryExit.set(true)
+        task.trackedVars.set(emptyList())
+        task.includeJava.set(false)
+        task.includeTimestamp.set(false)
+        task.pkgPrefixes.set(emptyList())
+        task.includePatterns.set(emptyList())
+        task.excludePatterns.set(emptyList())
+        task.parallelism.set(2)
+        task.shards.set(8)
+        task.gzipOutput.set(false)
+        task.minBranchesPerMethod.set(0)
+        task.incremental.set(incremental)
+        task.outputDir.set(project.layout.dir(project.provider { outputDir }))
+        return task
+    }
+
+    private fun writeSource(sourceDir: File, className: String, condition: String): File {
+        val file = File(sourceDir, "com/example/$className.kt")
+        file.parentFile.mkdirs()
+        file.writeText(
+            """
+            package com.example
+
+            class $className {
+                fun check(value: Int): Int {
+                    if ($condition) {
+                        return 1
+                    }
+                    return 0
+                }
+            }
+            """.trimIndent()
+        )
+        return file
+    }
+
+    private fun shardContents(dir: File): Map<String, String> =
+        dir.listFiles { file -> file.name.endsWith(".btm") }.orEmpty()
+            .sortedBy { it.name }
+            .associate { it.name to it.readText() }
+
+    private class FakeInputChanges(
+        private val incremental: Boolean,
+        private val changes: List<FileChange>
+    ) : InputChanges {
+        override fun isIncremental(): Boolean = incremental
+        override fun getFileChanges(parameter: FileCollection): Iterable<FileChange> = changes
+        override fun getFileChanges(parameter: Provider<out FileSystemLocation>): Iterable<FileChange> = changes
+    }
+
+    private class FakeFileChange(private val file: File, private val type: ChangeType) : FileChange {
+        override fun getFile(): File = file
+        override fun getChangeType(): ChangeType = type
+        override fun getFileType(): FileType = FileType.FILE
+        override fun getNormalizedPath(): String = file.name
+    }
+}
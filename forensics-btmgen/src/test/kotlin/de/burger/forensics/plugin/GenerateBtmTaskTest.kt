@@ -123,5 +123,108 @@ class GenerateBtmTaskTest {
         assertEquals(1, enterCount, "Entry rule should be emitted exactly once")
         assertEquals(1, exitCount, "Exit rule should be emitted exactly once")
     }
-}
 
+    @Test
+    fun `java branch rules are not duplicated by fallback without entry exit`() {
+        val project = ProjectBuilder.builder().build()
+        val task = project.tasks.register("generateBtmNoEntryExit", GenerateBtmTask::class.java).get()
+
+        val sourceDir = Files.createTempDirectory("btmgen-java-noentry").toFile()
+        val javaSource = """
+            package com.example;
+
+            public class Branchy {
+                public void demo(int value) {
+                    if (value > 0) {
+                        System.out.println(value);
+                    }
+                }
+            }
+        """.trimIndent()
+        File(sourceDir, "Branchy.java").writeText(javaSource)
+
+        task.srcDirs.set(listOf(sourceDir.absolutePath))
+        task.packagePrefix.set("com.example")
+        task.helperFqn.set("helper.Helper")
+        task.entryExit.set(false)
+        task.trackedVars.set(emptyList())
+        task.includeJava.set(true)
+        task.includeTimestamp.set(false)
+        task.maxStringLength.set(200)
+        task.pkgPrefixes.set(emptyList())
+        task.includePatterns.set(emptyList())
+        task.excludePatterns.set(emptyList())
+        task.parallelism.set(2)
+        task.shards.set(1)
+        task.gzipOutput.set(false)
+        task.minBranchesPerMethod.set(0)
+
+        val outputDir = Files.createTempDirectory("btm-task-output-noentry")
+        task.outputDir.set(project.layout.dir(project.provider { outputDir.toFile() }))
+
+        task.generate()
+
+        val content = outputDir.resolve("tracing-0001-00001.btm").toFile().readText()
+        val ifTrueCount = Regex("RULE\\s+com\\.example\\.Branchy\\.demo:\\d+:if-true\\b").findAll(content).count()
+
+        assertEquals(1, ifTrueCount, "AST-covered methods must not be re-emitted by the regex fallback\n$content")
+        assertTrue(!content.contains("RULE enter@"), "Entry rules must not be emitted when entryExit is disabled")
+    }
+
+    @Test
+    fun `fused java ifs count their outcomes for min branches`() {
+        val project = ProjectBuilder.builder().build()
+        val task = project.tasks.register("generateBtmFused", GenerateBtmTask::class.java).get()
+
+        val sourceDir = Files.createTempDirectory("btmgen-java-fused").toFile()
+        val javaSource = """
+            package com.example;
+
+            public class Gate {
+                public int both(int value) {
+                    if (value > 0) {
+                        return 1;
+                    } else {
+                        return 0;
+                    }
+                }
+
+                public void single(int value) {
+                    if (value > 0) {
+                        System.out.println(value);
+                    }
+                }
+            }
+        """.trimIndent()
+        File(sourceDir, "Gate.java").writeText(javaSource)
+
+        task.srcDirs.set(listOf(sourceDir.absolutePath))
+        task.packagePrefix.set("com.example")
+        task.helperFqn.set("helper.Helper")
+        task.entryExit.set(false)
+        task.trackedVars.set(emptyList())
+        task.includeJava.set(true)
+        task.includeTimestamp.set(false)
+        task.maxStringLength.set(200)
+        task.pkgPrefixes.set(emptyList())
+        task.includePatterns.set(emptyList())
+        task.excludePatterns.set(emptyList())
+        task.parallelism.set(1)
+        task.shards.set(1)
+        task.gzipOutput.set(false)
+        task.minBranchesPerMethod.set(2)
+        task.fuseDecisions.set(true)
+
+        val outputDir = Files.createTempDirectory("btm-task-output-fused")
+        task.outputDir.set(project.layout.dir(project.provider { outputDir.toFile() }))
+
+        task.generate()
+
+        val content = outputDir.resolve("tracing-0001-00001.btm").toFile().readText()
+        val ruleNames = Regex("RULE\\s+(\\S+)").findAll(content).map { it.groupValues[1] }.toList()
+
+        // An if without else has one outcome rule fused or not, so 'single' stays below the threshold.
+        assertEquals(listOf("com.example.Gate.both:5:if"), ruleNames, content)
+        assertTrue(content.contains("BIND taken:boolean = (value > 0)"), content)
+    }
+}
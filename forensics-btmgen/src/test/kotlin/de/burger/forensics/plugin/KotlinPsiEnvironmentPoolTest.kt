@@ -0,0 +1,43 @@
+package de.burger.forensics.plugin
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+class KotlinPsiEnvironmentPoolTest {
+
+    @Test
+    fun `released environments are reused by later leases`() {
+        KotlinPsiEnvironmentPool().use { pool ->
+            val first = pool.lease()
+            val environment = first.environment
+            first.close()
+
+            pool.lease().use { second ->
+                assertSame(environment, second.environment)
+                val ktFile = second.psiFactory.createFile("Sample.kt", "package a\n\nfun f() = 1\n")
+                assertEquals("a", ktFile.packageFqName.asString())
+            }
+        }
+    }
+
+    @Test
+    fun `concurrent leases get separate environments`() {
+        KotlinPsiEnvironmentPool().use { pool ->
+            pool.lease().use { first ->
+                pool.lease().use { second ->
+                    assertNotSame(first.environment, second.environment)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `closed pool rejects leases`() {
+        val pool = KotlinPsiEnvironmentPool()
+        pool.close()
+        assertFailsWith<IllegalStateException> { pool.lease() }
+    }
+}
@@ -0,0 +1,96 @@
+package de.burger.forensics.plugin
+
+import de.burger.forensics.plugin.scan.ScanEvent
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.nio.file.Files
+import java.util.concurrent.Executors
+
+class KotlinPsiScannerTest {
+
+    @Test
+    fun `emits events from the PSI`() {
+        val root = Files.createTempDirectory("kotlin-psi")
+        Files.writeString(
+            root.resolve("Demo.kt"),
+            """
+            package com.example
+
+            class Demo {
+                fun check(value: Any, limit: Map<String, Int>): Int {
+                    // if (commented) return 0
+                    if (value is String) {
+                        return 1
+                    }
+                    return when (value) {
+                        1, 2 -> 2
+                        else -> throw IllegalStateException("no")
+                    }
+                }
+
+                companion object {
+                    fun create(): Demo = Demo()
+                }
+            }
+            """.trimIndent()
+        )
+
+        val events = KotlinPsiEnvironmentPool().use { pool ->
+            KotlinPsiScanner(pool::lease).scan(root, emptyList(), emptyList())
+        }
+
+        assertThat(events).allSatisfy { event ->
+            assertThat(event.fqcn).isEqualTo("com.example.Demo")
+            assertThat(event.signature).isEqualTo("check(Any,Map<String,Int>)")
+        }
+        assertThat(events.map { it.kind to it.conditionText }).containsExactly(
+            "if-true" to "value is String",
+            "if-false" to "value is String",
+            "is-true" to "value is String",
+            "is-false" to "value is String",
+            "return" to null,
+            "return" to null,
+            "switch" to "value",
+            "when-branch" to "1 | 2",
+            "when-branch" to "else",
+            "throw" to "IllegalStateException(\"no\")"
+        )
+        assertThat(events.first { it.kind == "when-branch" }.line).isEqualTo(10)
+    }
+
+    @Test
+    fun `scans files concurrently with one environment per thread`() {
+        val root = Files.createTempDirectory("kotlin-psi-parallel")
+        val files = (0 until 16).map { idx ->
+            root.resolve("K$idx.kt").also { file ->
+                Files.writeString(
+                    file,
+                    """
+                    package com.example
+
+                    fun run$idx(value: Int): Int {
+                        if (value > $idx) {
+                            return value
+                        }
+                        return 0
+                    }
+                    """.trimIndent()
+                )
+            }
+        }
+
+        KotlinPsiEnvironmentPool().use { pool ->
+            val scanner = KotlinPsiScanner(pool::lease)
+            val sequential = files.map { scanner.scan(it, emptyList(), emptyList()) }
+            val executor = Executors.newFixedThreadPool(4)
+            try {
+                val concurrent = files.map { file -> executor.submit<List<ScanEvent>> { scanner.scan(file, emptyList(), emptyList()) } }
+                    .map { it.get() }
+                assertThat(concurrent).isEqualTo(sequential)
+            } finally {
+                executor.shutdownNow()
+            }
+            assertThat(sequential).allSatisfy { events -> assertThat(events).hasSize(4) }
+        }
+    }
+}
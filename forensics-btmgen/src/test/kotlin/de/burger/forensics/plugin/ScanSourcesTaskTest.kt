@@ -0,0 +1,138 @@
+package de.burger.forensics.plugin
+
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ScanSourcesTaskTest {
+
+    @Test
+    fun `rendering the scan artifact matches scanning directly`() {
+        assertRenderedMatchesDirect("none")
+    }
+
+    @Test
+    fun `scanning in an isolated worker process yields the same rules`() {
+        assertRenderedMatchesDirect("process")
+    }
+
+    @Test
+    fun `psi scans yield the same rules with every worker isolation`() {
+        listOf("none", "classloader", "process").forEach { assertRenderedMatchesDirect(it, KOTLIN_SCANNER_PSI) }
+    }
+
+    private fun assertRenderedMatchesDirect(isolation: String, kotlinScanner: String = KOTLIN_SCANNER_LEXER) {
+        val projectDir = Files.createTempDirectory("btmgen-scan-test").toFile().apply { deleteOnExit() }
+        File(projectDir, "settings.gradle.kts").writeText("rootProject.name = \"scan-project\"\n")
+        writeBuildScript(projectDir, isolation, kotlinScanner)
+        writeSources(projectDir)
+
+        val result = GradleRunner.create()
+            .withProjectDir(projectDir)
+            .withArguments("generateDirect", "generateRendered", "--stacktrace")
+            .withPluginClasspath()
+            .build()
+
+        assertEquals(TaskOutcome.SUCCESS, result.task(":scanSources")?.outcome)
+        val direct = shardContents(File(projectDir, "build/direct"))
+        assertEquals(direct, shardContents(File(projectDir, "build/rendered")))
+        val content = direct.values.joinToString("\n")
+        assertTrue(content.contains("RULE enter@com.example.Plain.noBranches"), "Expected entry rules for methods without branches\n$content")
+        assertTrue(content.contains("com.example.Sample"), content)
+    }
+
+    private fun writeBuildScript(projectDir: File, isolation: String, kotlinScanner: String) {
+        File(projectDir, "build.gradle.kts").writeText(
+            """
+            plugins {
+                id("de.burger.forensics.btmgen")
+            }
+
+            val scanSources = tasks.register<de.burger.forensics.plugin.ScanSourcesTask>("scanSources") {
+                srcDirs.set(listOf("src/main/java", "src/main/kotlin"))
+                pkgPrefixes.set(listOf("com.example"))
+                parallelism.set(2)
+                kotlinScanner.set("$kotlinScanner")
+                workerIsolation.set("$isolation")
+                workerMaxHeap.set("256m")
+            }
+
+            fun de.burger.forensics.plugin.GenerateBtmTask.configureShared(dir: String) {
+                helperFqn.set("helper.Helper")
+                entryExit.set(true)
+                includeJava.set(true)
+                useAstScanner.set(true)
+                kotlinScanner.set("$kotlinScanner")
+                pkgPrefixes.set(listOf("com.example"))
+                maxStringLength.set(200)
+                parallelism.set(2)
+                shards.set(3)
+                outputDir.set(layout.buildDirectory.dir(dir))
+            }
+
+            tasks.register<de.burger.forensics.plugin.GenerateBtmTask>("generateDirect") {
+                configureShared("direct")
+                srcDirs.set(listOf("src/main/java", "src/main/kotlin"))
+            }
+
+            tasks.register<de.burger.forensics.plugin.GenerateBtmTask>("generateRendered") {
+                configureShared("rendered")
+                srcDirs.set(emptyList())
+                scanResults.set(scanSources.flatMap { it.eventsFile })
+            }
+            """.trimIndent()
+        )
+    }
+
+    private fun writeSources(projectDir: File) {
+        val javaDir = File(projectDir, "src/main/java/com/example").apply { mkdirs() }
+        File(javaDir, "Plain.java").writeText(
+            """
+            package com.example;
+
+            public class Plain {
+                public int branches(int value) {
+                    if (value > 3) {
+                        return 1;
+                    }
+                    switch (value) {
+                        case 1: return 2;
+                        default: return 0;
+                    }
+                }
+
+                public void noBranches() {
+                    System.out.println("plain");
+                }
+            }
+            """.trimIndent()
+        )
+        val kotlinDir = File(projectDir, "src/main/kotlin/com/example").apply { mkdirs() }
+        File(kotlinDir, "Sample.kt").writeText(
+            """
+            package com.example
+
+            class Sample {
+                fun check(value: Int): String {
+                    if (value > 1) {
+                        return "big"
+                    }
+                    return when (value) {
+                        0 -> "zero"
+                        else -> "other"
+                    }
+                }
+            }
+            """.trimIndent()
+        )
+    }
+
+    private fun shardContents(dir: File): Map<String, String> =
+        dir.listFiles { file -> file.name.endsWith(".btm") }.orEmpty()
+            .sortedBy { it.name }
+            .associate { it.name to it.readText() }
+}
@@ -0,0 +1,46 @@
+package de.burger.forensics.plugin
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.file.Path
+
+class SourceInventoryTest {
+    @TempDir
+    lateinit var tempDir: Path
+
+    @Test
+    fun `classifies sources by extension in one walk`() {
+        val root = tempDir.toFile()
+        val b = write(root, "a/B.java", "class B {}")
+        val a = write(root, "a/A.java", "class A {}")
+        val k = write(root, "a/k/K.kt", "class K")
+        write(root, "a/notes.txt", "ignored")
+
+        val inventory = SourceInventory.scan(listOf(root), null, emptyList())
+
+        assertThat(inventory.javaFiles).containsExactly(a, b)
+        assertThat(inventory.kotlinFiles).containsExactly(k)
+        assertThat(inventory.sizeOf(b)).isEqualTo(10L)
+        assertThat(inventory.kotlinEntries.single().lastModified).isEqualTo(k.lastModified())
+    }
+
+    @Test
+    fun `applies include and exclude globs to relative paths`() {
+        val root = tempDir.toFile()
+        val kept = write(root, "app/Keep.kt", "class Keep")
+        write(root, "app/generated/Gen.kt", "class Gen")
+        write(root, "other/Other.kt", "class Other")
+
+        val inventory = SourceInventory.scan(listOf(root), listOf("app/**"), listOf("**/generated/**"))
+
+        assertThat(inventory.kotlinFiles).containsExactly(kept)
+    }
+
+    private fun write(root: File, path: String, text: String): File =
+        File(root, path).apply {
+            parentFile.mkdirs()
+            writeText(text)
+        }
+}
@@ -0,0 +1,53 @@
+package de.burger.forensics.plugin
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class SourcePathMatcherTest {
+
+    @Test
+    fun `prunes excluded subtrees`() {
+        val matcher = SourcePathMatcher(null, listOf("**/generated/**", "build/**"))
+
+        assertThat(matcher.shouldDescend("build")).isFalse()
+        assertThat(matcher.shouldDescend("app/generated")).isFalse()
+        assertThat(matcher.shouldDescend("app")).isTrue()
+        assertThat(matcher.shouldDescend("app/generator")).isTrue()
+    }
+
+    @Test
+    fun `prunes directories no include can reach`() {
+        val matcher = SourcePathMatcher(listOf("app/*/Main.kt", "lib/**"), emptyList())
+
+        assertThat(matcher.shouldDescend("app")).isTrue()
+        assertThat(matcher.shouldDescend("app/x")).isTrue()
+        assertThat(matcher.shouldDescend("app/x/deeper")).isFalse()
+        assertThat(matcher.shouldDescend("lib/a/b/c")).isTrue()
+        assertThat(matcher.shouldDescend("other")).isFalse()
+    }
+
+    @Test
+    fun `matches files like the path matcher`() {
+        val paths = listOf(
+            "A.kt", "app/A.kt", "app/B.java", "app/generated/G.kt", "app/x/Main.kt", "lib/a/b/C.kt", "Z1.kt"
+        )
+        val globs = listOf("**/*.kt", "*.kt", "app/**", "app/{A,B}.*", "**/generated/**", "?1.kt", "[!A]*.kt", "app/*/Main.kt")
+        globs.forEach { glob ->
+            val matcher = SourcePathMatcher(listOf(glob), emptyList())
+            paths.forEach { path ->
+                assertThat(matcher.matches(path))
+                    .describedAs("%s against %s", path, glob)
+                    .isEqualTo(globMatchesPath(path, glob))
+            }
+        }
+    }
+
+    @Test
+    fun `excludes win over includes`() {
+        val matcher = SourcePathMatcher(listOf("app/**"), listOf("**/generated/**"))
+
+        assertThat(matcher.matches("app/A.kt")).isTrue()
+        assertThat(matcher.matches("app/generated/G.kt")).isFalse()
+        assertThat(matcher.matches("lib/A.kt")).isFalse()
+    }
+}
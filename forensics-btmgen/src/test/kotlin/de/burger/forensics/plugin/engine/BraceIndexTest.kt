@@ -0,0 +1,22 @@
+package de.burger.forensics.plugin.engine
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class BraceIndexTest {
+    @Test
+    fun `pairs nested braces in one pass`() {
+        val text = "} class A { void m() { if (x) { } } void n() { } } {"
+        val index = BraceIndex.of(text)
+
+        fun body(open: Int) = text.substring(open, index.closeOf(open) + 1)
+
+        assertThat(body(text.indexOf("{ void m"))).isEqualTo("{ void m() { if (x) { } } void n() { } }")
+        assertThat(body(text.indexOf("{ if"))).isEqualTo("{ if (x) { } }")
+        assertThat(body(text.indexOf("{ } }"))).isEqualTo("{ }")
+        assertThat(body(text.indexOf("n() {") + 4)).isEqualTo("{ }")
+        // Never closed, or not an opening brace at all: the body runs to the end of the text.
+        assertThat(index.closeOf(text.lastIndexOf('{'))).isEqualTo(text.length - 1)
+        assertThat(index.closeOf(0)).isEqualTo(text.length - 1)
+    }
+}
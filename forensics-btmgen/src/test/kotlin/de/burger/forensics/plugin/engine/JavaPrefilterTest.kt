@@ -28,4 +28,19 @@ class JavaPrefilterTest {
         assertThat(prefiltered).doesNotContain("'x'")
         assertThat(prefiltered.count { it == '\n' }).isEqualTo(src.count { it == '\n' })
     }
+
+    @Test
+    fun `resolves comment and literal markers in source order`() {
+        val src = "String u = \"a//b\" + \"/*\"; int keep = 1; /* \" */ int also = 2;\n" +
+            "char q = '\\''; String t = \"\"\"\n  if (y) { }\n  \"\"\"; int last = 3; // \"\n"
+
+        val prefiltered = JavaPrefilter.prefilterJava(src)
+
+        assertThat(prefiltered).hasSameSizeAs(src)
+        assertThat(prefiltered).contains("int keep = 1;", "int also = 2;", "int last = 3;")
+        assertThat(prefiltered).contains("String u = \"    \" + \"  \";")
+        assertThat(prefiltered).contains("char q = '  ';")
+        assertThat(prefiltered).doesNotContain("if (y)")
+        assertThat(prefiltered.count { it == '\n' }).isEqualTo(src.count { it == '\n' })
+    }
 }
@@ -1,6 +1,7 @@
 package de.burger.forensics.plugin.engine
 
 import kotlin.test.Test
+import kotlin.test.assertEquals
 import kotlin.test.assertTrue
 
 class JavaRegexParserTest {
@@ -69,4 +70,39 @@ class JavaRegexParserTest {
         assertTrue(rules.any { it.contains("RULE com.example.InnerHelper.process:") && it.contains(":when") })
         assertTrue(rules.any { it.contains("RULE com.example.InnerHelper.process:") && it.contains(":case") })
     }
+
+    @Test
+    fun `fused mode emits one rule per if that binds the condition once`() {
+        val javaSource = """
+            package com.example;
+
+            public class Gate {
+                public boolean open(int level, int limit) {
+                    if (level > limit) {
+                        return true;
+                    }
+                    return false;
+                }
+            }
+        """.trimIndent()
+
+        val rules = JavaRegexParser(true).scan(javaSource, "helper.Fqn", "com.example", false, 0)
+
+        assertEquals(
+            listOf(
+                listOf(
+                    "RULE com.example.Gate.open:5:if",
+                    "CLASS com.example.Gate",
+                    "METHOD open(..)",
+                    "HELPER helper.Fqn",
+                    "AT LINE 5",
+                    "BIND taken:boolean = (level > limit)",
+                    "IF (true)",
+                    "DO iff(\"com.example.Gate\",\"open\",5,\"level > limit\", taken)",
+                    "ENDRULE"
+                ).joinToString("\n")
+            ),
+            rules
+        )
+    }
 }
@@ -0,0 +1,39 @@
+package de.burger.forensics.plugin.engine
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.util.regex.Pattern
+
+class ScanDeadlineTest {
+    @Test
+    fun `aborts a catastrophically backtracking match`() {
+        // Takes tens of seconds unguarded.
+        val pattern = Pattern.compile("(.*,){11}P")
+        val text = "1,".repeat(30)
+
+        val started = System.nanoTime()
+        assertThatThrownBy { pattern.matcher(ScanDeadline.after(50).guard(text)).find() }
+            .isInstanceOf(ScanDeadline.ScanTimeoutException::class.java)
+        assertThat((System.nanoTime() - started) / 1_000_000).isLessThan(5_000)
+    }
+
+    @Test
+    fun `guarded text matches like the plain text`() {
+        val source = """
+            package com.example;
+
+            class Sample {
+                void run(int x) {
+                    if (x > 0) { }
+                }
+            }
+        """.trimIndent()
+
+        val plain = JavaRegexParser().scanRules(source, "helper.Fqn", "", true, 0).map { it.render() }
+        val guarded = JavaRegexParser().scanRules(source, "helper.Fqn", "", true, 0, ScanDeadline.after(60_000)).map { it.render() }
+
+        assertThat(guarded).isNotEmpty.isEqualTo(plain)
+        assertThat(ScanDeadline.NONE.guard(source)).isSameAs(source)
+    }
+}
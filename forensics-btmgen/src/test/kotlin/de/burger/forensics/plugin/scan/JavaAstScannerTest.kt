@@ -2,6 +2,7 @@ package de.burger.forensics.plugin.scan
 
 import de.burger.forensics.plugin.scan.java.JavaAstScanner
 import java.nio.file.Files
+import java.util.concurrent.Executors
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
 
@@ -64,4 +65,150 @@ class JavaAstScannerTest {
             assertThat(event.kind).isEqualTo("throw")
         }
     }
+
+    @Test
+    fun `one scanner instance scans files concurrently`() {
+        val root = Files.createTempDirectory("java-ast-parallel")
+        val pkgDir = Files.createDirectories(root.resolve("com/example"))
+        val files = (0 until 16).map { idx ->
+            pkgDir.resolve("C$idx.java").also { file ->
+                Files.writeString(
+                    file,
+                    """
+                    package com.example;
+
+                    public class C$idx {
+                        public int run(int value) {
+                            if (value > $idx) {
+                                return value;
+                            }
+                            return 0;
+                        }
+                    }
+                    """.trimIndent()
+                )
+            }
+        }
+
+        val scanner = JavaAstScanner()
+        val sequential = files.map { scanner.scan(it, emptyList(), emptyList()) }
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val concurrent = files.map { file -> executor.submit<List<ScanEvent>> { scanner.scan(file, emptyList(), emptyList()) } }
+                .map { it.get() }
+            assertThat(concurrent).isEqualTo(sequential)
+        } finally {
+            executor.shutdownNow()
+        }
+        assertThat(sequential).allSatisfy { events -> assertThat(events).hasSize(4) }
+    }
+
+    @Test
+    fun `syntax-only scan matches a scan with symbol resolution`() {
+        val root = Files.createTempDirectory("java-ast-syntax")
+        Files.writeString(
+            root.resolve("Resolved.java"),
+            """
+            package com.example;
+
+            public class Resolved {
+                // a comment that is not attributed in syntax-only mode
+                public String label(Object value) {
+                    if (value instanceof String text && !text.isEmpty()) { // trailing
+                        return text;
+                    }
+                    throw new IllegalArgumentException("no label");
+                }
+            }
+            """.trimIndent()
+        )
+
+        val syntaxOnly = JavaAstScanner().scan(root, emptyList(), emptyList())
+        val resolving = JavaAstScanner(true).scan(root, emptyList(), emptyList())
+
+        assertThat(syntaxOnly).isNotEmpty
+        assertThat(syntaxOnly).isEqualTo(resolving)
+    }
+
+    @Test
+    fun `reports each else-if once with its source text`() {
+        val root = Files.createTempDirectory("java-ast-chain")
+        Files.writeString(
+            root.resolve("Chain.java"),
+            """
+            package com.example;
+
+            public class Chain {
+                public int grade(int score) {
+                    if (score>=90) {
+                        return 1;
+                    } else if (score >= 50 /* pass */) {
+                        return 2;
+                    } else if ((score  >=  10)) {
+                        return 3;
+                    }
+                    return 4;
+                }
+
+                static class Inner {
+                    int sign(int v) {
+                        Runnable r = new Runnable() {
+                            public void run() {
+                                if (v == 0) throw new IllegalStateException( "zero" );
+                            }
+                        };
+                        return v < 0 ? -1 : 1;
+                    }
+                }
+            }
+            """.trimIndent()
+        )
+
+        val events = JavaAstScanner().scan(root, emptyList(), emptyList())
+
+        val grade = events.filter { it.method == "grade" }
+        assertThat(grade.filter { it.kind == "if-true" }.map { it.conditionText })
+            .containsExactly("score>=90", "score >= 50", "(score  >=  10)")
+        assertThat(grade.filter { it.kind == "if-false" }.map { it.conditionText })
+            .containsExactly("score>=90", "score >= 50")
+        assertThat(grade.count { it.kind == "return" }).isEqualTo(4)
+
+        val run = events.filter { it.method == "run" }
+        assertThat(run.map { it.fqcn }).containsOnly("com.example.Chain\$Inner")
+        assertThat(run.map { it.kind }).containsExactly("method", "if-true", "throw")
+        assertThat(run.last().conditionText).isEqualTo("new IllegalStateException( \"zero\" )")
+        assertThat(events.filter { it.method == "sign" }.map { it.kind }).containsExactly("method", "return")
+    }
+
+    @Test
+    fun `reports methods without branches but not abstract ones`() {
+        val root = Files.createTempDirectory("java-ast-methods")
+        Files.writeString(
+            root.resolve("Plain.java"),
+            """
+            package com.example;
+
+            public abstract class Plain {
+                public Plain() {
+                }
+
+                @Override
+                public String toString() {
+                    return "plain";
+                }
+
+                void noBranches() {
+                }
+
+                abstract void later();
+            }
+            """.trimIndent()
+        )
+
+        val events = JavaAstScanner().scan(root, emptyList(), emptyList())
+
+        assertThat(events.filter { it.kind == "method" }.map { it.method to it.line })
+            .containsExactly("toString" to 8, "noBranches" to 12)
+        assertThat(events.first { it.method == "noBranches" }.signature).isEqualTo("noBranches()")
+    }
 }